@@ -0,0 +1,80 @@
+package annotator.bench;
+
+import annotator.AnnotationStore;
+import annotator.AnnotatorScanCheck;
+import annotator.stub.MontoyaStubs;
+import annotator.stub.StubApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.scanner.AuditResult;
+import burp.api.montoya.scanner.audit.insertionpoint.AuditInsertionPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// activeAudit with `rows` URLs already scanned. Burp calls it once per insertion point, so the
+// same base request repeats (sameBase), then moves on to another base request; whether that one
+// is still in the handled cache depends on how many bases were audited in between.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class AuditBench {
+    // Fewer bases than the handled cache has slots, and far more
+    private static final int FEW_BASES = 256;
+    private static final int MANY_BASES = 1 << 15;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private AnnotatorScanCheck scanCheck;
+    private AuditInsertionPoint insertionPoint;
+    private HttpRequestResponse[] bases;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StubApi api = new StubApi();
+        AnnotationStore store = new AnnotationStore();
+        for (int i = 0; i < rows; i++) {
+            store.addTag(Corpus.key(i), AnnotationStore.SCANNED_TAG);
+        }
+        // Only the panel drains the store, and there's no panel here
+        store.drainPending(Integer.MAX_VALUE);
+        scanCheck = new AnnotatorScanCheck(api.api(), store);
+        insertionPoint = MontoyaStubs.stub(AuditInsertionPoint.class);
+        bases = new HttpRequestResponse[MANY_BASES];
+        for (int i = 0; i < MANY_BASES; i++) {
+            bases[i] = Corpus.requestResponse((int) ((long) i * rows / MANY_BASES));
+        }
+    }
+
+    @Benchmark
+    public AuditResult sameBase() {
+        return scanCheck.activeAudit(bases[0], insertionPoint);
+    }
+
+    @Benchmark
+    public AuditResult fewBases() {
+        next = (next + 1) & (FEW_BASES - 1);
+        return scanCheck.activeAudit(bases[next * (MANY_BASES / FEW_BASES)], insertionPoint);
+    }
+
+    @Benchmark
+    public AuditResult manyBases() {
+        next = (next + 1) & (MANY_BASES - 1);
+        return scanCheck.activeAudit(bases[next], insertionPoint);
+    }
+}
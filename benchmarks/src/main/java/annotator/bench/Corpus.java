@@ -0,0 +1,48 @@
+package annotator.bench;
+
+import annotator.UrlKey;
+import annotator.stub.MontoyaStubs;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+
+import java.util.SplittableRandom;
+
+// Synthetic site: a few hundred hosts with REST-ish paths. Row i always maps to the same URL,
+// so benchmarks can fill a store with rows [0, n) and then probe rows inside or outside it.
+// Also the load simulator's default corpus.
+public final class Corpus {
+    private static final String[] SEGMENTS = {"api", "v1", "v2", "users", "orders", "items", "search",
+        "admin", "static", "img", "account", "login", "cart", "checkout", "reports"};
+    private static final int HOSTS = 300;
+
+    private Corpus() {
+    }
+
+    public static String host(int row) {
+        return "host" + (row % HOSTS) + ".example.com";
+    }
+
+    public static String path(int row) {
+        SplittableRandom random = new SplittableRandom(row);
+        StringBuilder sb = new StringBuilder();
+        int depth = 1 + random.nextInt(4);
+        for (int i = 0; i < depth; i++) {
+            sb.append('/').append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+        }
+        return sb.append('/').append(row).toString();
+    }
+
+    public static String url(int row) {
+        return "https://" + host(row) + path(row);
+    }
+
+    public static UrlKey key(int row) {
+        return UrlKey.of(true, host(row), 443, path(row));
+    }
+
+    public static HttpRequestResponse requestResponse(int row) {
+        HttpService service = MontoyaStubs.service(host(row), 443, true);
+        return MontoyaStubs.requestResponse(MontoyaStubs.request(service, row % 3 == 0 ? "POST" : "GET",
+            path(row) + "?id=" + row + "&page=1", row % 3 == 0 ? new String[]{"name", "email"} : new String[0]));
+    }
+}
@@ -0,0 +1,110 @@
+package annotator.bench;
+
+import annotator.AnnotatorExtension;
+import annotator.stub.MontoyaStubs;
+import annotator.stub.StubApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.scanner.audit.AuditIssueHandler;
+import burp.api.montoya.scanner.audit.issues.AuditIssue;
+import burp.api.montoya.ui.editor.extension.ExtensionProvidedHttpRequestEditor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// The "Annotation" editor tab being pointed at a new message, with `rows` scanned URLs known.
+// Runs the whole extension against the stub API; the journal goes to a temporary home
+// directory, and setup waits for it to finish writing the prefill before measuring.
+// Headless, the tab is never showing, and lookups only happen for a showing tab, so this is
+// what a selection change costs the EDT while the tab is in the background.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class EditorBench {
+    private static final String SCANNED_ISSUE_NAME = "[Annotator] Active Scanned";
+    private static final int MESSAGES = 4096;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private Path home;
+    private StubApi api;
+    private ExtensionProvidedHttpRequestEditor editor;
+    private HttpRequestResponse[] messages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        home = Files.createTempDirectory("annotator-bench");
+        System.setProperty("user.home", home.toString());
+        api = new StubApi();
+        new AnnotatorExtension().initialize(api.api());
+
+        // Fill it the way Burp would at runtime, through the issue handler
+        AuditIssueHandler handler = api.issueHandlers.get(0);
+        for (int i = 0; i < rows; i++) {
+            handler.handleNewAuditIssue(MontoyaStubs.stub(AuditIssue.class,
+                Map.of("name", SCANNED_ISSUE_NAME, "baseUrl", Corpus.url(i))));
+        }
+        awaitQuiet(home);
+
+        editor = api.editorProviders.get(0).provideHttpRequestEditor(null);
+        // Half known, half not
+        messages = new HttpRequestResponse[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            int row = (int) ((long) (i / 2) * rows / (MESSAGES / 2));
+            messages[i] = Corpus.requestResponse(i % 2 == 0 ? row : rows + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        api.unload();
+        try (Stream<Path> files = Files.walk(home)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Until nothing under dir has changed size for a second
+    private static void awaitQuiet(Path dir) throws IOException, InterruptedException {
+        long last = -1;
+        while (true) {
+            Thread.sleep(1000);
+            long size;
+            try (Stream<Path> files = Files.walk(dir)) {
+                size = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+            }
+            if (size == last) {
+                return;
+            }
+            last = size;
+        }
+    }
+
+    @Benchmark
+    public ExtensionProvidedHttpRequestEditor setRequestResponse() {
+        next = (next + 1) & (MESSAGES - 1);
+        editor.setRequestResponse(messages[next]);
+        return editor;
+    }
+}
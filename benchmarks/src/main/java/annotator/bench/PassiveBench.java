@@ -0,0 +1,82 @@
+package annotator.bench;
+
+import annotator.AnnotationStore;
+import annotator.AnnotatorScanCheck;
+import annotator.PassiveRule;
+import annotator.PassiveRuleEngine;
+import annotator.stub.MontoyaStubs;
+import annotator.stub.StubApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.scanner.AuditResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Passive rules over an HTML response of `kilobytes` KB that no rule matches, with the default
+// rules plus `extraRules` custom literal and regex ones. fullMatch is the pass over the bytes;
+// passiveAudit goes through the scan check, where messages whose URL already has every tag the
+// rules could add are skipped without looking at the bytes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PassiveBench {
+    @Param({"4", "64"})
+    public int kilobytes;
+
+    @Param({"0", "60"})
+    public int extraRules;
+
+    private PassiveRuleEngine engine;
+    private AnnotatorScanCheck scanCheck;
+    private HttpRequest request;
+    private HttpResponse response;
+    private HttpRequestResponse message;
+
+    @Setup
+    public void setUp() {
+        StringBuilder rules = new StringBuilder(PassiveRule.DEFAULT_RULES);
+        for (int i = 0; i < extraRules; i++) {
+            rules.append("Custom ").append(i % 10).append(": ")
+                .append(i % 2 == 0 ? "response literal data-marker-" + i : "any regex token_" + i + "=[0-9a-f]{16}")
+                .append('\n');
+        }
+        AnnotationStore store = new AnnotationStore();
+        engine = PassiveRuleEngine.compile(PassiveRule.parse(rules.toString()), store.tagRegistry());
+        scanCheck = new AnnotatorScanCheck(new StubApi().api(), store);
+        scanCheck.setPassiveRules(engine);
+
+        StringBuilder body = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n");
+        while (body.length() < kilobytes * 1024) {
+            body.append("<div class=\"row\"><a href=\"/items/").append(body.length())
+                .append("\" data-id=\"token_\">Item</a></div>\n");
+        }
+        request = MontoyaStubs.request(MontoyaStubs.service("shop.example.com", 443, true), "GET", "/items?page=2");
+        response = MontoyaStubs.response(body.toString());
+        message = MontoyaStubs.requestResponse(request, response);
+    }
+
+    @Benchmark
+    public int fullMatch() {
+        return engine.match(request, response, -1);
+    }
+
+    @Benchmark
+    public AuditResult passiveAudit() {
+        return scanCheck.passiveAudit(message);
+    }
+}
@@ -0,0 +1,84 @@
+package annotator.bench;
+
+import annotator.AnnotationStore;
+import annotator.ScannedUrlsPanel;
+import annotator.UrlKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The panel's lookups against a store already holding `rows` scanned URLs. The panel is built
+// headless and left to drain the store into its table before measuring, as it would in Burp.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class StoreBench {
+    private static final int PROBES = 4096;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private AnnotationStore store;
+    private ScannedUrlsPanel panel;
+    private UrlKey[] present;
+    private UrlKey[] absent;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        store = new AnnotationStore();
+        panel = new ScannedUrlsPanel(store);
+        for (int i = 0; i < rows; i++) {
+            store.addTag(Corpus.key(i), AnnotationStore.SCANNED_TAG);
+        }
+        while (store.hasPending()) {
+            Thread.sleep(50);
+        }
+        present = new UrlKey[PROBES];
+        absent = new UrlKey[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            present[i] = Corpus.key((int) ((long) i * rows / PROBES));
+            absent[i] = Corpus.key(rows + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        panel.dispose();
+    }
+
+    private int next() {
+        return next = (next + 1) & (PROBES - 1);
+    }
+
+    @Benchmark
+    public boolean hasUrlPresent() {
+        return panel.hasUrl(present[next()]);
+    }
+
+    @Benchmark
+    public boolean hasUrlAbsent() {
+        return panel.hasUrl(absent[next()]);
+    }
+
+    // The common case from the scanner: the URL is already there and tagged
+    @Benchmark
+    public void addScannedUrlExisting() {
+        panel.addScannedUrl(present[next()], AnnotationStore.SCANNED_TAG);
+    }
+}
@@ -0,0 +1,80 @@
+package annotator.bench;
+
+import annotator.AnnotationStore;
+import annotator.Metrics;
+import annotator.ToolTrafficRecorder;
+import annotator.stub.StubApi;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// What Burp's HTTP threads pay for tool tagging: an Intruder-style flood over `urls` URLs from
+// several threads while the recorder's consumer runs. Drops are printed at the end; they're
+// expected here since nothing in Burp sends this fast.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@Threads(4)
+public class ToolTrafficBench {
+    @Param({"16", "100000"})
+    public int urls;
+
+    private Metrics metrics;
+    private ToolTrafficRecorder recorder;
+    private HttpRequest[] requests;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StubApi api = new StubApi();
+        metrics = new Metrics();
+        recorder = new ToolTrafficRecorder(api.api(), new AnnotationStore(), metrics);
+        requests = new HttpRequest[urls];
+        for (int i = 0; i < urls; i++) {
+            requests[i] = Corpus.requestResponse(i).request();
+        }
+        recorder.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recorder.stop();
+        for (String line : metrics.report()) {
+            System.out.println(line);
+        }
+    }
+
+    @Benchmark
+    public boolean intruder(Cursor cursor) {
+        cursor.next = cursor.next + 1 == urls ? 0 : cursor.next + 1;
+        return recorder.offer(requests[cursor.next], ToolType.INTRUDER);
+    }
+
+    @Benchmark
+    public boolean proxy(Cursor cursor) {
+        cursor.next = cursor.next + 1 == urls ? 0 : cursor.next + 1;
+        return recorder.offer(requests[cursor.next], ToolType.PROXY);
+    }
+}
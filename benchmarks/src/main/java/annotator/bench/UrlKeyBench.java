@@ -0,0 +1,81 @@
+package annotator.bench;
+
+import annotator.UrlKey;
+import annotator.stub.MontoyaStubs;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+// Key building: the original normalizeUrl against UrlKey's entry points
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class UrlKeyBench {
+    private final String url = "https://api.Example.com:8443/api/v2/users/1234/profile?expand=true&id=5";
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() {
+        request = MontoyaStubs.request(MontoyaStubs.service("api.Example.com", 8443, true), "GET",
+            "/api/v2/users/1234/profile?expand=true&id=5");
+    }
+
+    // Copy of AnnotatorExtension.normalizeUrl from before UrlKey, kept as the baseline
+    @SuppressWarnings("deprecation")
+    private static String normalizeUrl(URL url) {
+        try {
+            int port = url.getPort();
+            boolean isDefaultPort = (url.getProtocol().equals("http") && port == 80)
+                    || (url.getProtocol().equals("https") && port == 443)
+                    || (port == -1);
+
+            if (isDefaultPort) {
+                return url.getProtocol() + "://" + url.getHost() + url.getPath();
+            } else {
+                return url.getProtocol() + "://" + url.getHost() + ":" + port + url.getPath();
+            }
+        } catch (Exception e) {
+            return url.toString(); // fallback
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String legacyNormalizeUrl() throws Exception {
+        return normalizeUrl(new URL(url));
+    }
+
+    @Benchmark
+    public UrlKey fromString() {
+        return UrlKey.of(url);
+    }
+
+    @Benchmark
+    public UrlKey fromComponents() {
+        return UrlKey.of(true, "api.Example.com", 8443, "/api/v2/users/1234/profile");
+    }
+
+    @Benchmark
+    public UrlKey fromRequest() {
+        return UrlKey.of(request);
+    }
+
+    @Benchmark
+    public UrlKey endpointFromRequest() {
+        return UrlKey.endpoint(request);
+    }
+}
@@ -0,0 +1,385 @@
+package annotator.sim;
+
+import annotator.AnnotationStore;
+import annotator.AnnotatorScanCheck;
+import annotator.IssueMode;
+import annotator.KeyMode;
+import annotator.ScannedUrlsPanel;
+import annotator.UrlKey;
+import annotator.bench.Corpus;
+import annotator.stub.MontoyaStubs;
+import annotator.stub.StubApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.scanner.AuditResult;
+import burp.api.montoya.scanner.audit.insertionpoint.AuditInsertionPoint;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableModel;
+import java.awt.Component;
+import java.awt.Container;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stands in for Burp's scanner: replays a corpus of base requests through activeAudit from N
+// threads, each base getting one call per insertion point back to back as Burp does, while a
+// headless ScannedUrlsPanel drains the store on the EDT. Reports throughput, per-call latency,
+// allocation, how long the EDT took to answer while under load, and checks that every URL
+// ended up in the store and the table exactly once, with exactly one issue per URL, one per
+// host or none depending on --issues.
+//
+// ./gradlew :benchmarks:simulate -Psim.args="--threads 1,2,4,8 --urls 100000"
+//
+// Exits with status 1 if any update was lost or duplicated.
+public final class ScanLoadSimulator {
+    private static final long EDT_PROBE_INTERVAL_MS = 5;
+
+    private final Options options;
+    private final HttpRequestResponse[] bases;
+    // Index into keys for each base
+    private final int[] keyIds;
+    private final List<UrlKey> keys;
+    private final int hosts;
+
+    private ScanLoadSimulator(Options options, HttpRequestResponse[] bases, int[] keyIds, List<UrlKey> keys, int hosts) {
+        this.options = options;
+        this.bases = bases;
+        this.keyIds = keyIds;
+        this.keys = keys;
+        this.hosts = hosts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        List<HttpRequestResponse> corpus = options.corpus != null
+            ? readCorpus(options.corpus) : syntheticCorpus(options.urls);
+
+        // Burp scans some URLs more than once, each time with a new base request object
+        SplittableRandom random = new SplittableRandom(42);
+        List<HttpRequestResponse> replay = new ArrayList<>(corpus);
+        int rescans = (int) (corpus.size() * options.rescanFraction);
+        for (int i = 0; i < rescans; i++) {
+            HttpRequestResponse original = corpus.get(random.nextInt(corpus.size()));
+            replay.add(MontoyaStubs.requestResponse(original.request()));
+        }
+        for (int i = replay.size() - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            HttpRequestResponse swap = replay.get(i);
+            replay.set(i, replay.get(j));
+            replay.set(j, swap);
+        }
+
+        Map<UrlKey, Integer> ids = new HashMap<>();
+        List<UrlKey> keys = new ArrayList<>();
+        HttpRequestResponse[] bases = replay.toArray(new HttpRequestResponse[0]);
+        int[] keyIds = new int[bases.length];
+        Set<String> hosts = new HashSet<>();
+        for (int i = 0; i < bases.length; i++) {
+            hosts.add(bases[i].httpService().toString());
+            UrlKey key = UrlKey.of(bases[i].request(), options.mode);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = keys.size();
+                ids.put(key, id);
+                keys.add(key);
+            }
+            keyIds[i] = id;
+        }
+
+        System.out.printf("Corpus: %d base requests, %d distinct %s keys on %d hosts, %d insertion points each,"
+                + " %d prefilled, issues %s%n", bases.length, keys.size(), options.mode.name(), hosts.size(),
+            options.insertionPoints, options.prefill, options.issues.name());
+        System.out.printf("%7s %12s %10s %10s %10s %12s %10s %10s %10s %8s %8s%n", "threads", "calls/s",
+            "p50 ns", "p99 ns", "max ns", "alloc MB/s", "B/call", "edt p99", "catchup", "lost", "dupes");
+
+        ScanLoadSimulator simulator = new ScanLoadSimulator(options, bases, keyIds, keys, hosts.size());
+        boolean ok = true;
+        for (int threads : options.threads) {
+            ok &= simulator.run(threads);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run(int threads) throws Exception {
+        StubApi api = new StubApi();
+        AnnotationStore store = new AnnotationStore();
+        store.setKeyMode(options.mode);
+        for (int i = 0; i < options.prefill; i++) {
+            store.addTag(Corpus.key(-1 - i), AnnotationStore.SCANNED_TAG);
+        }
+        ScannedUrlsPanel[] holder = new ScannedUrlsPanel[1];
+        SwingUtilities.invokeAndWait(() -> holder[0] = new ScannedUrlsPanel(store));
+        ScannedUrlsPanel panel = holder[0];
+        awaitPanel(store);
+
+        AnnotatorScanCheck scanCheck = new AnnotatorScanCheck(api.api(), store);
+        scanCheck.setIssueMode(options.issues);
+        AuditInsertionPoint insertionPoint = MontoyaStubs.stub(AuditInsertionPoint.class);
+        AtomicIntegerArray issues = new AtomicIntegerArray(keys.size());
+        AtomicInteger nextBase = new AtomicInteger();
+        AtomicLong allocated = new AtomicLong();
+        LatencyHistogram latency = new LatencyHistogram();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                LatencyHistogram local = new LatencyHistogram();
+                try {
+                    start.await();
+                    long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+                    int i;
+                    while ((i = nextBase.getAndIncrement()) < bases.length) {
+                        HttpRequestResponse base = bases[i];
+                        for (int p = 0; p < options.insertionPoints; p++) {
+                            long began = System.nanoTime();
+                            AuditResult result = scanCheck.activeAudit(base, insertionPoint);
+                            local.record(System.nanoTime() - began);
+                            int found = result.auditIssues().size();
+                            if (found > 0) {
+                                issues.addAndGet(keyIds[i], found);
+                            }
+                        }
+                    }
+                    allocated.addAndGet(threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    synchronized (latency) {
+                        latency.add(local);
+                    }
+                    done.countDown();
+                }
+            }, "Simulated scanner " + t);
+            worker.start();
+        }
+
+        // How long a task queued on the EDT waits while the panel is absorbing the updates
+        LatencyHistogram edt = new LatencyHistogram();
+        ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor();
+        prober.scheduleAtFixedRate(() -> {
+            long queued = System.nanoTime();
+            SwingUtilities.invokeLater(() -> edt.record(System.nanoTime() - queued));
+        }, 0, EDT_PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - began;
+        awaitPanel(store);
+        long catchUp = System.nanoTime() - began - elapsed;
+        prober.shutdownNow();
+        prober.awaitTermination(1, TimeUnit.SECONDS);
+
+        Verification verification = new Verification();
+        SwingUtilities.invokeAndWait(() -> verification.check(panel, store, keys, issues, options));
+        SwingUtilities.invokeAndWait(panel::dispose);
+
+        long calls = latency.count();
+        double seconds = elapsed / 1e9;
+        long[] edtPercentile = new long[1];
+        SwingUtilities.invokeAndWait(() -> edtPercentile[0] = edt.percentile(99));
+        System.out.printf("%7d %,12.0f %,10d %,10d %,10d %,12.1f %,10d %,10.2f %,10.2f %8d %8d%n", threads,
+            calls / seconds, latency.percentile(50), latency.percentile(99), latency.max(),
+            allocated.get() / seconds / (1 << 20), calls == 0 ? 0 : allocated.get() / calls,
+            edtPercentile[0] / 1e6, catchUp / 1e6, verification.lost, verification.duplicated);
+        for (String problem : verification.problems) {
+            System.out.println("        " + problem);
+        }
+        return verification.lost == 0 && verification.duplicated == 0;
+    }
+
+    // Until the panel has taken everything from the store: once nothing is pending, a task
+    // queued behind the flush that drained it runs after that flush has finished
+    private static void awaitPanel(AnnotationStore store) throws Exception {
+        while (store.hasPending()) {
+            Thread.sleep(10);
+        }
+        SwingUtilities.invokeAndWait(() -> { });
+    }
+
+    private final class Verification {
+        int totalIssues;
+        int lost;
+        int duplicated;
+        final List<String> problems = new ArrayList<>();
+
+        void check(ScannedUrlsPanel panel, AnnotationStore store, List<UrlKey> keys,
+                   AtomicIntegerArray issues, Options options) {
+            TableModel model = findTable(panel).getModel();
+            Set<Object> rows = new HashSet<>();
+            for (int row = 0; row < model.getRowCount(); row++) {
+                if (!rows.add(model.getValueAt(row, 0))) {
+                    duplicated++;
+                    report("table row " + model.getValueAt(row, 0) + " appears twice");
+                }
+            }
+            for (int id = 0; id < keys.size(); id++) {
+                UrlKey key = keys.get(id);
+                if (!store.isScanned(key)) {
+                    lost++;
+                    report("store lost " + key);
+                } else if (!rows.contains(key.value())) {
+                    lost++;
+                    report("table lost " + key);
+                }
+                int count = issues.get(id);
+                totalIssues += count;
+                if (options.issues != IssueMode.PER_URL) {
+                    continue;
+                }
+                if (count == 0) {
+                    lost++;
+                    report("no issue for " + key);
+                } else if (count > 1) {
+                    duplicated += count - 1;
+                    report(count + " issues for " + key);
+                }
+            }
+            int expectedIssues = options.issues == IssueMode.PER_URL ? keys.size()
+                : options.issues == IssueMode.PER_HOST ? hosts : 0;
+            if (options.issues != IssueMode.PER_URL && totalIssues != expectedIssues) {
+                if (totalIssues < expectedIssues) {
+                    lost += expectedIssues - totalIssues;
+                } else {
+                    duplicated += totalIssues - expectedIssues;
+                }
+                report(totalIssues + " issues, expected " + expectedIssues);
+            }
+            int expected = keys.size() + options.prefill;
+            if (model.getRowCount() != expected || store.size() != expected) {
+                report("expected " + expected + " rows, table has " + model.getRowCount()
+                    + " and store has " + store.size());
+            }
+        }
+
+        private void report(String problem) {
+            // The first few are enough to go on
+            if (problems.size() < 10) {
+                problems.add(problem);
+            }
+        }
+
+        private static JTable findTable(Container container) {
+            for (Component child : container.getComponents()) {
+                if (child instanceof JTable) {
+                    return (JTable) child;
+                }
+                if (child instanceof Container) {
+                    JTable table = findTable((Container) child);
+                    if (table != null) {
+                        return table;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static List<HttpRequestResponse> syntheticCorpus(int urls) {
+        List<HttpRequestResponse> corpus = new ArrayList<>(urls);
+        for (int i = 0; i < urls; i++) {
+            corpus.add(Corpus.requestResponse(i));
+        }
+        return corpus;
+    }
+
+    // One request per line, "URL" or "METHOD URL"; blank lines and # comments are skipped
+    private static List<HttpRequestResponse> readCorpus(Path file) throws IOException {
+        List<HttpRequestResponse> corpus = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String method = space < 0 ? "GET" : line.substring(0, space);
+            URI uri = URI.create(space < 0 ? line : line.substring(space + 1).trim());
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+            String path = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            corpus.add(MontoyaStubs.requestResponse(
+                MontoyaStubs.request(MontoyaStubs.service(uri.getHost(), port, secure), method, path)));
+        }
+        return corpus;
+    }
+
+    private static final class Options {
+        int[] threads = {1, 2, 4, Runtime.getRuntime().availableProcessors()};
+        int urls = 100_000;
+        int insertionPoints = 10;
+        double rescanFraction = 0.2;
+        int prefill;
+        KeyMode mode = KeyMode.URL;
+        IssueMode issues = IssueMode.PER_URL;
+        Path corpus;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--threads":
+                        options.threads = Arrays.stream(required(args[i], value).split(","))
+                            .mapToInt(Integer::parseInt).distinct().toArray();
+                        break;
+                    case "--urls":
+                        options.urls = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--insertion-points":
+                        options.insertionPoints = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--rescans":
+                        options.rescanFraction = Double.parseDouble(required(args[i], value));
+                        break;
+                    case "--prefill":
+                        options.prefill = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--mode":
+                        options.mode = KeyMode.valueOf(required(args[i], value).toUpperCase());
+                        break;
+                    case "--issues":
+                        options.issues = IssueMode.valueOf(required(args[i], value).toUpperCase());
+                        break;
+                    case "--corpus":
+                        options.corpus = Path.of(required(args[i], value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]
+                            + "; options are --threads 1,2,4 --urls N --insertion-points N --rescans FRACTION"
+                            + " --prefill N --mode URL|ENDPOINT --issues PER_URL|PER_HOST|NONE --corpus FILE");
+                }
+                i++;
+            }
+            return options;
+        }
+
+        private static String required(String option, String value) {
+            if (value == null) {
+                throw new IllegalArgumentException(option + " needs a value");
+            }
+            return value;
+        }
+    }
+}
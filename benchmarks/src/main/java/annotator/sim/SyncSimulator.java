@@ -0,0 +1,286 @@
+package annotator.sim;
+
+import annotator.AnnotationStore;
+import annotator.AnnotationSync;
+import annotator.DirectorySyncTransport;
+import annotator.Metrics;
+import annotator.SyncTransport;
+import annotator.TagRegistry;
+import annotator.UrlKey;
+import annotator.bench.Corpus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Several testers syncing through one shared directory. Each replica has its own store and
+// edits random tags on a shared set of URLs from its own thread, all at once; then one replica
+// goes offline while the others keep working, and comes back. Checks that every store ends up
+// with the same tags, and reports how much the returning replica had to fetch compared to
+// everything in the directory.
+//
+// ./gradlew :benchmarks:simulateSync -Psim.args="--replicas 3 --urls 20000 --edits 50000"
+//
+// Exits with status 1 if the stores don't converge.
+public final class SyncSimulator {
+    // Registered in a different order on each replica, so tag ids differ between them
+    private static final String[] TAGS = {"SQLi", "XSS", "IDOR", "Need to Scan"};
+    private static final long CONVERGE_TIMEOUT_MS = 120_000;
+
+    private final Path shared;
+    private final int urls;
+    private final Replica[] replicas;
+
+    private SyncSimulator(Path work, int replicaCount, int urls) throws IOException {
+        this.shared = work.resolve("shared");
+        this.urls = urls;
+        this.replicas = new Replica[replicaCount];
+        for (int i = 0; i < replicaCount; i++) {
+            replicas[i] = new Replica(i, work.resolve("replica" + i));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int replicaCount = 3;
+        int urls = 20_000;
+        int edits = 50_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--replicas":
+                    replicaCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--urls":
+                    urls = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--edits":
+                    edits = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]
+                        + "; options are --replicas N --urls N --edits N");
+            }
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+        }
+        Path work = Files.createTempDirectory("annotator-sync");
+        boolean ok;
+        try {
+            ok = new SyncSimulator(work, replicaCount, urls).run(edits);
+        } finally {
+            deleteTree(work);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run(int edits) throws Exception {
+        System.out.printf("%d replicas, %d URLs, %d edits each%n", replicas.length, urls, edits);
+        for (Replica replica : replicas) {
+            replica.startSync();
+        }
+
+        long began = System.nanoTime();
+        edit(replicas, edits, 1);
+        long converged = awaitConvergence(replicas);
+        if (converged < 0) {
+            return false;
+        }
+        System.out.printf("Concurrent edits: converged %.1f s after the edits started, %d keys, directory %s%n",
+            (converged - began) / 1e9, replicas[0].store.size(), kilobytes(directorySize()));
+
+        // Replica 0 goes offline while the rest carry on
+        Replica offline = replicas[0];
+        offline.stopSync();
+        Replica[] online = Arrays.copyOfRange(replicas, 1, replicas.length);
+        long sizeBefore = directorySize();
+        edit(online, edits / 2, 2);
+        if (awaitConvergence(online) < 0) {
+            return false;
+        }
+        long missed = directorySize() - sizeBefore;
+        // And makes some changes of its own while it's away
+        edit(new Replica[]{offline}, edits / 10, 3);
+
+        long back = System.nanoTime();
+        offline.startSync();
+        converged = awaitConvergence(replicas);
+        if (converged < 0) {
+            return false;
+        }
+        System.out.printf("Back online: converged in %.1f s, fetched %d batches / %s of %s in the directory"
+                + " (%s published while offline)%n", (converged - back) / 1e9, offline.fetchedBatches.get(),
+            kilobytes(offline.fetchedBytes.get()), kilobytes(directorySize()), kilobytes(missed));
+
+        for (Replica replica : replicas) {
+            replica.stopSync();
+        }
+        for (String line : replicas[0].metrics.report()) {
+            if (line.startsWith("sync")) {
+                System.out.println("replica 0 " + line);
+            }
+        }
+        return true;
+    }
+
+    // Every replica edits at once, each from its own thread
+    private void edit(Replica[] editing, int edits, int round) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (Replica replica : editing) {
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(round * 1000L + replica.id);
+                for (int i = 0; i < edits; i++) {
+                    UrlKey key = Corpus.key(random.nextInt(urls));
+                    int op = random.nextInt(10);
+                    if (op < 2) {
+                        replica.store.addTag(key, AnnotationStore.SCANNED_TAG);
+                    } else if (op < 7) {
+                        replica.store.addTag(key, TAGS[random.nextInt(TAGS.length)]);
+                    } else {
+                        replica.store.removeTag(key, TAGS[random.nextInt(TAGS.length)]);
+                    }
+                }
+            }, "Replica " + replica.id + " edits");
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // Nanotime when every store had the same tags, or -1 if they didn't in time
+    private long awaitConvergence(Replica[] group) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONVERGE_TIMEOUT_MS;
+        String difference = null;
+        while (System.currentTimeMillis() < deadline) {
+            difference = difference(group);
+            if (difference == null) {
+                return System.nanoTime();
+            }
+            Thread.sleep(250);
+        }
+        System.out.println("Did not converge: " + difference);
+        return -1;
+    }
+
+    private static String difference(Replica[] group) {
+        Map<Long, Set<String>> first = group[0].snapshot();
+        for (int i = 1; i < group.length; i++) {
+            Map<Long, Set<String>> other = group[i].snapshot();
+            Set<Long> keys = new HashSet<>(first.keySet());
+            keys.addAll(other.keySet());
+            for (long key : keys) {
+                Set<String> a = first.getOrDefault(key, Set.of());
+                Set<String> b = other.getOrDefault(key, Set.of());
+                if (!a.equals(b)) {
+                    return String.format("%016x is %s on replica %d and %s on replica %d", key, a, group[0].id,
+                        b, group[i].id);
+                }
+            }
+        }
+        return null;
+    }
+
+    private long directorySize() throws IOException {
+        try (Stream<Path> files = Files.walk(shared)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static String kilobytes(long bytes) {
+        return String.format("%,d KB", bytes / 1024);
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private final class Replica {
+        final int id;
+        final Path home;
+        final AnnotationStore store = new AnnotationStore();
+        final Metrics metrics = new Metrics();
+        final AtomicLong fetchedBatches = new AtomicLong();
+        final AtomicLong fetchedBytes = new AtomicLong();
+        AnnotationSync sync;
+
+        Replica(int id, Path home) {
+            this.id = id;
+            this.home = home;
+            for (int i = 0; i < TAGS.length; i++) {
+                store.tagRegistry().add(TAGS[(i + id) % TAGS.length], TagRegistry.DEFAULT_COLOR);
+            }
+        }
+
+        void startSync() throws IOException {
+            fetchedBatches.set(0);
+            fetchedBytes.set(0);
+            sync = new AnnotationSync(store, new CountingTransport(new DirectorySyncTransport(shared)),
+                home.resolve("sync-state.bin"), message -> System.out.println("replica " + id + ": " + message),
+                metrics);
+            store.setChangeListener(sync);
+            sync.start();
+        }
+
+        void stopSync() {
+            sync.stop();
+            store.setChangeListener(null);
+        }
+
+        // Tag names by key hash, for comparing replicas whose tag ids differ
+        Map<Long, Set<String>> snapshot() {
+            Map<Long, Set<String>> tags = new HashMap<>();
+            store.forEach((key, mask, timeSeconds) -> {
+                List<String> names = store.tagRegistry().names(mask);
+                if (!names.isEmpty()) {
+                    tags.put(key.hash(), new HashSet<>(names));
+                }
+            });
+            return tags;
+        }
+
+        // What this replica pulls from the directory
+        private final class CountingTransport implements SyncTransport {
+            private final SyncTransport transport;
+
+            CountingTransport(SyncTransport transport) {
+                this.transport = transport;
+            }
+
+            @Override
+            public void publish(String replica, long seq, byte[] data) throws IOException {
+                transport.publish(replica, seq, data);
+            }
+
+            @Override
+            public List<Batch> fetch(String self, Map<String, Long> after, int max) throws IOException {
+                List<Batch> batches = transport.fetch(self, after, max);
+                fetchedBatches.addAndGet(batches.size());
+                for (Batch batch : batches) {
+                    fetchedBytes.addAndGet(batch.data().length);
+                }
+                return batches;
+            }
+
+            @Override
+            public String describe() {
+                return transport.describe();
+            }
+        }
+    }
+}
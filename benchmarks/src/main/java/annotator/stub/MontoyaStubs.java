@@ -0,0 +1,210 @@
+package annotator.stub;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+import burp.api.montoya.scanner.AuditResult;
+import burp.api.montoya.scanner.audit.issues.AuditIssue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Just enough of Burp to run the extension's code outside it. Every stub is a dynamic proxy:
+// methods with an answer return it, anything else returns a harmless default (zero, false,
+// null, an empty list, or another stub for interface types, so call chains like
+// api.logging().logToOutput(...) just work).
+//
+// Proxies cost a reflective call per method, which benchmarks pay on every stubbed call; that
+// is the same for every run, so it doesn't hide regressions in the code under test.
+public final class MontoyaStubs {
+    private MontoyaStubs() {
+    }
+
+    // Computed answer; plain values can be put in the answer map directly
+    public interface Answer {
+        Object answer(Object[] args);
+    }
+
+    public static <T> T stub(Class<T> type) {
+        return stub(type, Map.of());
+    }
+
+    public static <T> T stub(Class<T> type, Map<String, ?> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Handler(answers)));
+    }
+
+    // Static factories such as AuditResult.auditResult() go through this in the real API
+    public static void installObjectFactory() {
+        if (ObjectFactoryLocator.FACTORY != null) {
+            return;
+        }
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("auditResult", (Answer) args -> auditResult(args));
+        answers.put("httpRequestResponse", (Answer) args -> args[1] == null
+            ? requestResponse((HttpRequest) args[0]) : requestResponse((HttpRequest) args[0], (HttpResponse) args[1]));
+        ObjectFactoryLocator.FACTORY = stub(MontoyaObjectFactory.class, answers);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AuditResult auditResult(Object[] args) {
+        List<AuditIssue> issues;
+        if (args == null || args.length == 0) {
+            issues = List.of();
+        } else if (args[0] instanceof List) {
+            issues = (List<AuditIssue>) args[0];
+        } else {
+            issues = Arrays.asList((AuditIssue[]) args[0]);
+        }
+        return stub(AuditResult.class, Map.of("auditIssues", issues));
+    }
+
+    public static HttpService service(String host, int port, boolean secure) {
+        return stub(HttpService.class, Map.of("host", host, "port", port, "secure", secure,
+            "toString", (secure ? "https://" : "http://") + host + ":" + port));
+    }
+
+    // pathAndQuery like "/a/b?x=1"; parameters are the query's names, plus bodyParams as body ones
+    public static HttpRequest request(HttpService service, String method, String pathAndQuery, String... bodyParams) {
+        int q = pathAndQuery.indexOf('?');
+        String path = q < 0 ? pathAndQuery : pathAndQuery.substring(0, q);
+        List<ParsedHttpParameter> parameters = new ArrayList<>();
+        if (q >= 0) {
+            for (String pair : pathAndQuery.substring(q + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                parameters.add(parameter(eq < 0 ? pair : pair.substring(0, eq), HttpParameterType.URL));
+            }
+        }
+        for (String name : bodyParams) {
+            parameters.add(parameter(name, HttpParameterType.BODY));
+        }
+        String url = (service.secure() ? "https://" : "http://") + service.host()
+            + (service.port() == (service.secure() ? 443 : 80) ? "" : ":" + service.port()) + pathAndQuery;
+        int bodyLength = bodyParams.length * 8;
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("httpService", service);
+        answers.put("method", method);
+        answers.put("path", pathAndQuery);
+        answers.put("pathWithoutQuery", path);
+        answers.put("query", q < 0 ? "" : pathAndQuery.substring(q + 1));
+        answers.put("url", url);
+        answers.put("parameters", List.copyOf(parameters));
+        answers.put("body", stub(ByteArray.class, Map.of("length", bodyLength)));
+        answers.put("toString", method + " " + url);
+        String raw = method + " " + pathAndQuery + " HTTP/1.1\r\nHost: " + service.host() + "\r\n\r\n";
+        answers.put("toByteArray", bytes(raw.getBytes(StandardCharsets.ISO_8859_1)));
+        return stub(HttpRequest.class, answers);
+    }
+
+    // Raw response bytes; only toByteArray, statusCode and body length are answered
+    public static HttpResponse response(String raw) {
+        byte[] bytes = raw.getBytes(StandardCharsets.ISO_8859_1);
+        int headerEnd = raw.indexOf("\r\n\r\n");
+        int bodyLength = headerEnd < 0 ? 0 : bytes.length - headerEnd - 4;
+        return stub(HttpResponse.class, Map.of("toByteArray", bytes(bytes), "statusCode", (short) 200,
+            "body", stub(ByteArray.class, Map.of("length", bodyLength))));
+    }
+
+    public static ByteArray bytes(byte[] bytes) {
+        return stub(ByteArray.class, Map.of("getBytes", bytes, "length", bytes.length));
+    }
+
+    public static HttpRequestResponse requestResponse(HttpRequest request, HttpResponse response) {
+        return stub(HttpRequestResponse.class, Map.of("request", request, "response", response,
+            "httpService", request.httpService(), "url", request.url(), "toString", request.toString()));
+    }
+
+    public static ParsedHttpParameter parameter(String name, HttpParameterType type) {
+        return stub(ParsedHttpParameter.class, Map.of("name", name, "type", type, "value", ""));
+    }
+
+    public static HttpRequestResponse requestResponse(HttpRequest request) {
+        return stub(HttpRequestResponse.class, Map.of("request", request, "httpService", request.httpService(),
+            "url", request.url(), "toString", request.toString()));
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Map<String, ?> answers;
+        private final Map<Class<?>, Object> children = new HashMap<>();
+
+        Handler(Map<String, ?> answers) {
+            this.answers = answers;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object answer = answers.get(name);
+            if (answer != null) {
+                return answer instanceof Answer ? ((Answer) answer).answer(args) : answer;
+            }
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return method.getDeclaringClass().getSimpleName() + " stub";
+                default:
+                    break;
+            }
+            if (method.isDefault()) {
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private Object defaultValue(Class<?> type) {
+            if (type == void.class) {
+                return null;
+            }
+            if (type == boolean.class) {
+                return false;
+            }
+            // Separate returns: as one conditional expression the int 0 would be typed short
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == short.class) {
+                return (short) 0;
+            }
+            if (type == byte.class) {
+                return (byte) 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type == double.class || type == float.class) {
+                return type == double.class ? 0.0 : 0.0f;
+            }
+            if (type == char.class) {
+                return '\0';
+            }
+            if (type == List.class) {
+                return List.of();
+            }
+            if (type == Optional.class) {
+                return Optional.empty();
+            }
+            if (type.isInterface()) {
+                synchronized (children) {
+                    return children.computeIfAbsent(type, MontoyaStubs::stub);
+                }
+            }
+            return null;
+        }
+    }
+}
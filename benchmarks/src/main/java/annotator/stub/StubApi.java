@@ -0,0 +1,117 @@
+package annotator.stub;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.extension.Extension;
+import burp.api.montoya.extension.ExtensionUnloadingHandler;
+import burp.api.montoya.http.Http;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.project.Project;
+import burp.api.montoya.scanner.ScanCheck;
+import burp.api.montoya.scanner.Scanner;
+import burp.api.montoya.scanner.audit.AuditIssueHandler;
+import burp.api.montoya.scanner.audit.issues.AuditIssue;
+import burp.api.montoya.scope.Scope;
+import burp.api.montoya.sitemap.SiteMap;
+import burp.api.montoya.ui.UserInterface;
+import burp.api.montoya.ui.editor.extension.HttpRequestEditorProvider;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A MontoyaApi stub that keeps what the extension registers, so harnesses can drive the scan
+// check, the editor, the HTTP handler and the issue handler the way Burp would. The site map is whatever the
+// harness puts in issues and requestResponses; everything is in scope.
+public class StubApi {
+    public final List<AuditIssue> issues = new CopyOnWriteArrayList<>();
+    public final List<HttpRequestResponse> requestResponses = new CopyOnWriteArrayList<>();
+    public final List<ScanCheck> scanChecks = new CopyOnWriteArrayList<>();
+    public final List<AuditIssueHandler> issueHandlers = new CopyOnWriteArrayList<>();
+    public final List<HttpRequestEditorProvider> editorProviders = new CopyOnWriteArrayList<>();
+    public final List<HttpHandler> httpHandlers = new CopyOnWriteArrayList<>();
+    public final List<ExtensionUnloadingHandler> unloadingHandlers = new CopyOnWriteArrayList<>();
+    public final Map<String, Component> suiteTabs = new ConcurrentHashMap<>();
+    public final List<String> log = new CopyOnWriteArrayList<>();
+    private final MontoyaApi api;
+
+    public StubApi() {
+        this("stub-project");
+    }
+
+    public StubApi(String projectId) {
+        MontoyaStubs.installObjectFactory();
+
+        Map<String, Object> extension = new HashMap<>();
+        extension.put("registerUnloadingHandler", (MontoyaStubs.Answer) args -> {
+            unloadingHandlers.add((ExtensionUnloadingHandler) args[0]);
+            return null;
+        });
+
+        Map<String, Object> scanner = new HashMap<>();
+        scanner.put("registerScanCheck", (MontoyaStubs.Answer) args -> {
+            scanChecks.add((ScanCheck) args[0]);
+            return null;
+        });
+        scanner.put("registerAuditIssueHandler", (MontoyaStubs.Answer) args -> {
+            issueHandlers.add((AuditIssueHandler) args[0]);
+            return null;
+        });
+
+        Map<String, Object> http = new HashMap<>();
+        http.put("registerHttpHandler", (MontoyaStubs.Answer) args -> {
+            httpHandlers.add((HttpHandler) args[0]);
+            return null;
+        });
+
+        Map<String, Object> ui = new HashMap<>();
+        ui.put("registerSuiteTab", (MontoyaStubs.Answer) args -> {
+            suiteTabs.put((String) args[0], (Component) args[1]);
+            return null;
+        });
+        ui.put("registerHttpRequestEditorProvider", (MontoyaStubs.Answer) args -> {
+            editorProviders.add((HttpRequestEditorProvider) args[0]);
+            return null;
+        });
+
+        Map<String, Object> siteMap = new HashMap<>();
+        siteMap.put("issues", (MontoyaStubs.Answer) args -> new ArrayList<>(issues));
+        siteMap.put("requestResponses", (MontoyaStubs.Answer) args -> new ArrayList<>(requestResponses));
+
+        Map<String, Object> logging = new HashMap<>();
+        logging.put("logToOutput", (MontoyaStubs.Answer) args -> {
+            log.add(String.valueOf(args[0]));
+            return null;
+        });
+        logging.put("logToError", (MontoyaStubs.Answer) args -> {
+            log.add("ERROR " + args[0]);
+            return null;
+        });
+
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("extension", MontoyaStubs.stub(Extension.class, extension));
+        answers.put("scanner", MontoyaStubs.stub(Scanner.class, scanner));
+        answers.put("http", MontoyaStubs.stub(Http.class, http));
+        answers.put("userInterface", MontoyaStubs.stub(UserInterface.class, ui));
+        answers.put("siteMap", MontoyaStubs.stub(SiteMap.class, siteMap));
+        answers.put("scope", MontoyaStubs.stub(Scope.class, Map.of("isInScope", true)));
+        answers.put("logging", MontoyaStubs.stub(Logging.class, logging));
+        answers.put("project", MontoyaStubs.stub(Project.class, Map.of("id", projectId, "name", projectId)));
+        api = MontoyaStubs.stub(MontoyaApi.class, answers);
+    }
+
+    public MontoyaApi api() {
+        return api;
+    }
+
+    public void unload() {
+        for (ExtensionUnloadingHandler handler : unloadingHandlers) {
+            handler.extensionUnloaded();
+        }
+    }
+}
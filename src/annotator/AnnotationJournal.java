@@ -0,0 +1,292 @@
+package annotator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Durable copy of the store's annotations: an append-only journal of changes plus a snapshot.
+// Every record holds a key's whole state (hash, display value, tag mask, time), so replaying
+// is last-write-wins per key. Changes are queued per key without blocking and a single writer
+// thread appends them in batches; once the journal gets long the writer replaces the snapshot with the
+// store's live contents, so loading only ever reads one snapshot and a short tail.
+// A record torn by a crash ends the replay at that point, everything before it still loads.
+public class AnnotationJournal implements AnnotationStore.ChangeListener {
+    private static final int MAGIC = 0x414e4e31; // "ANN1"
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final int COMPACT_AFTER = 50_000;
+    private static final int WRITE_BATCH = 4096;
+
+    private final Path dir;
+    private final Consumer<String> errorLog;
+    // Latest unwritten state per key hash
+    private final ConcurrentHashMap<Long, Record> queued = new ConcurrentHashMap<>();
+    private volatile Thread writer;
+    private volatile boolean closed;
+    private volatile boolean stopping;
+    private AnnotationStore store;
+    private int storeGeneration;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    private record Record(long hash, String value, int tags, long timeSeconds) { }
+
+    public AnnotationJournal(Path dir, Consumer<String> errorLog) {
+        this.dir = dir;
+        this.errorLog = errorLog;
+    }
+
+    // Replays the snapshot and journal into the store, then starts writing new changes. Changes
+    // made while this runs are queued and written once it's done. If interrupted or closed
+    // meanwhile it stops early and never writes, since the store only holds part of the state.
+    // Restore merges rather than replaces, so a key's journal records have to win over its
+    // snapshot record up front: the journal tail (short, compaction keeps it that way) is read
+    // into a map first and the snapshot, which can hold millions of keys, streams straight in.
+    public int load(AnnotationStore store) throws IOException {
+        Files.createDirectories(dir);
+        this.store = store;
+        storeGeneration = store.generation();
+        Map<Long, Record> tail = new LinkedHashMap<>();
+        read(dir.resolve(JOURNAL_FILE), record -> tail.put(record.hash, record));
+        int[] loaded = {tail.size()};
+        read(dir.resolve(SNAPSHOT_FILE), record -> {
+            if (!tail.containsKey(record.hash) && !Thread.currentThread().isInterrupted()) {
+                restore(store, record);
+                loaded[0]++;
+            }
+        });
+        for (Record record : tail.values()) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            restore(store, record);
+        }
+        synchronized (this) {
+            if (closed || Thread.currentThread().isInterrupted()) {
+                closed = true;
+                queued.clear();
+                return loaded[0];
+            }
+            journalRecords = countJournal();
+            journal = openJournal();
+            writer = new Thread(this::writeLoop, "Annotator journal");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        return loaded[0];
+    }
+
+    private static void restore(AnnotationStore store, Record record) {
+        store.restore(UrlKey.restore(record.hash, record.value), record.tags, record.timeSeconds);
+    }
+
+    // Never blocks. Only a key's latest state is worth writing, so changes are kept per key and
+    // a key changed again before the writer gets to it takes one slot, not two; a stalled disk
+    // then holds at most one record per key rather than one per change.
+    @Override
+    public void changed(UrlKey key, int oldTags, int newTags, long timeSeconds) {
+        if (!closed && queued.put(key.hash(), new Record(key.hash(), key.value(), newTags, timeSeconds)) == null) {
+            Thread started = writer;
+            if (started != null) {
+                LockSupport.unpark(started);
+            }
+        }
+    }
+
+    // Writes out whatever is still queued and stops the writer. The writer is told to stop through
+    // a flag rather than interrupted, since an interrupt would close the file under it.
+    public void close() {
+        Thread started;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            started = writer;
+        }
+        if (started == null) {
+            queued.clear();
+            return;
+        }
+        stopping = true;
+        LockSupport.unpark(started);
+        try {
+            started.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(WRITE_BATCH);
+        try {
+            while (true) {
+                // Read before draining, so everything queued before close() still gets written
+                boolean stop = stopping;
+                for (Long hash : queued.keySet()) {
+                    Record record = queued.remove(hash);
+                    if (record != null) {
+                        batch.add(record);
+                    }
+                    if (batch.size() == WRITE_BATCH) {
+                        writeBatch(batch);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+                if (stop) {
+                    break;
+                }
+                if (queued.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                if (Thread.interrupted()) {
+                    // Shutting down without close(), keep what has been flushed
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            closed = true;
+            queued.clear();
+            errorLog.accept("Annotation journal stopped: " + e.getMessage());
+        } finally {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing left to save
+            }
+        }
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        for (Record record : batch) {
+            write(journal, record);
+        }
+        journal.flush();
+        journalRecords += batch.size();
+        batch.clear();
+        // Once closing, the store may be cleared at any moment; the next load compacts instead
+        if (journalRecords >= COMPACT_AFTER && !closed) {
+            compact();
+        }
+    }
+
+    // Writes the store's current contents as the new snapshot and starts an empty journal.
+    // Every journaled change is already in the store, and changes still queued get appended
+    // after, which replays to the same state. Only the writer thread touches the files, so
+    // nothing gets appended while this runs; new changes just wait in the queue.
+    private void compact() throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            store.forEach((key, tags, timeSeconds) -> {
+                try {
+                    write(out, new Record(key.hash(), key.value(), tags, timeSeconds));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (store.generation() != storeGeneration) {
+            // Cleared for a key mode change while writing, keep the journal as it is
+            Files.deleteIfExists(tmp);
+            return;
+        }
+        journal.close();
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(dir.resolve(JOURNAL_FILE));
+        journalRecords = 0;
+        journal = openJournal();
+    }
+
+    // Also cuts off a torn record at the end, so new records don't land behind it
+    private int countJournal() throws IOException {
+        Path file = dir.resolve(JOURNAL_FILE);
+        int[] count = {0};
+        long valid = read(file, record -> count[0]++);
+        if (Files.exists(file) && Files.size(file) > valid) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return count[0];
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        Path file = dir.resolve(JOURNAL_FILE);
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        if (fresh) {
+            data.writeInt(MAGIC);
+            data.flush();
+        }
+        return data;
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeLong(record.hash);
+        out.writeInt(record.tags);
+        out.writeLong(record.timeSeconds);
+        out.writeUTF(record.value);
+    }
+
+    // Returns the length of the file up to the end of the last whole record
+    private long read(Path file, Consumer<Record> sink) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long valid = 0;
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16))) {
+            if (data.readInt() != MAGIC) {
+                errorLog.accept("Ignoring " + file + ", not an annotation file");
+                return 0;
+            }
+            valid = 4;
+            while (true) {
+                long hash = data.readLong();
+                int tags = data.readInt();
+                long time = data.readLong();
+                String value = data.readUTF();
+                sink.accept(new Record(hash, value, tags, time));
+                valid += 22 + utfLength(value);
+            }
+        } catch (EOFException e) {
+            // End of file, or a record cut short by a crash
+        }
+        return valid;
+    }
+
+    // Bytes writeUTF uses for the string, not counting its length prefix
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 1 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,240 @@
+package annotator;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.scanner.audit.issues.AuditIssue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Annotation state shared between Burp's scanner threads and the UI.
+// There is no Swing in here: writers update the compact key -> tag mask map and queue the
+// changed key, and the UI drains the queue on its own schedule.
+public class AnnotationStore {
+    public static final String SCANNED_TAG = "Scanned";
+    public static final int SCANNED_BIT = 1 << TagRegistry.SCANNED_ID;
+
+    // Top bit of the mask, set while the key is waiting in the pending queue
+    private static final int QUEUED = 1 << 31;
+
+    // Each entry carries the display value of the key it was first stored under, for exporting
+    // and syncing; forEach turns it back into a key
+    private final LongTagMap entries = new LongTagMap();
+    private final TagRegistry tagRegistry = new TagRegistry();
+    // Scan and tag events per key, for this session only
+    private final ScanHistory history = new ScanHistory();
+    private final ConcurrentLinkedQueue<UrlKey> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile KeyMode keyMode = KeyMode.URL;
+    private volatile ChangeListener changeListener;
+
+    // Called on the writing thread after a key is added or its tags change, so it has to be quick
+    public interface ChangeListener {
+        void changed(UrlKey key, int oldTags, int newTags, long timeSeconds);
+    }
+
+    public ScanHistory history() {
+        return history;
+    }
+
+    public TagRegistry tagRegistry() {
+        return tagRegistry;
+    }
+
+    // Bit for a tag name, 0 for names we don't know
+    public int tagBit(String tag) {
+        return tagRegistry.bit(tag);
+    }
+
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public KeyMode keyMode() {
+        return keyMode;
+    }
+
+    // Keys already in the store were built in the old mode, so callers clear and rebuild after this
+    public void setKeyMode(KeyMode keyMode) {
+        this.keyMode = keyMode;
+    }
+
+    public UrlKey keyFor(HttpRequest request) {
+        return UrlKey.of(request, keyMode);
+    }
+
+    // Endpoint keys need the issue's request, or the parameter names it was trimmed down to;
+    // issues without one fall back to the base URL
+    public UrlKey keyFor(AuditIssue issue) {
+        if (keyMode == KeyMode.ENDPOINT) {
+            List<HttpRequestResponse> requestResponses = issue.requestResponses();
+            if (requestResponses != null && !requestResponses.isEmpty() && requestResponses.get(0).request() != null) {
+                HttpRequest request = requestResponses.get(0).request();
+                String recorded = request.headerValue(UrlKey.PARAMS_HEADER);
+                return recorded != null ? UrlKey.endpoint(request, recorded) : UrlKey.endpoint(request);
+            }
+        }
+        return UrlKey.of(issue.baseUrl());
+    }
+
+    // Returns true if the key was not in the store before
+    public boolean add(UrlKey key) {
+        if (entries.contains(key.hash())) {
+            return false;
+        }
+        return update(key, 0, 0, 0) == LongTagMap.ABSENT;
+    }
+
+    public boolean contains(UrlKey key) {
+        return entries.contains(key.hash());
+    }
+
+    // Tag mask for the key, 0 if it isn't in the store
+    public int tags(UrlKey key) {
+        return tags(key.hash());
+    }
+
+    public int tags(long keyHash) {
+        long mask = entries.get(keyHash);
+        return mask == LongTagMap.ABSENT ? 0 : (int) mask & ~QUEUED;
+    }
+
+    // Time of the last change in milliseconds, or -1 if the key isn't in the store
+    public long lastModified(UrlKey key) {
+        long seconds = entries.time(key.hash());
+        return seconds == LongTagMap.ABSENT ? -1 : seconds * 1000;
+    }
+
+    public boolean hasTag(UrlKey key, String tag) {
+        int bit = tagBit(tag);
+        return bit != 0 && (tags(key) & bit) != 0;
+    }
+
+    public boolean isScanned(UrlKey key) {
+        return (tags(key) & SCANNED_BIT) != 0;
+    }
+
+    // Adds the key if needed; returns true if the tag was not already set
+    public boolean addTag(UrlKey key, String tag) {
+        int bit = tagBit(tag);
+        long old = update(key, bit, 0, 0);
+        return old == LongTagMap.ABSENT ? bit != 0 : (old & bit) == 0;
+    }
+
+    // Several tags at once by bit; returns true if any of them was not already set
+    public boolean addTags(UrlKey key, int bits) {
+        bits &= ~QUEUED;
+        long old = update(key, bits, 0, 0);
+        return old == LongTagMap.ABSENT ? bits != 0 : (old & bits) != bits;
+    }
+
+    public boolean removeTag(UrlKey key, String tag) {
+        int bit = tagBit(tag);
+        if (bit == 0 || (tags(key) & bit) == 0) {
+            return false;
+        }
+        long old = update(key, 0, bit, 0);
+        return old != LongTagMap.ABSENT && (old & bit) != 0;
+    }
+
+    public void toggleTag(UrlKey key, String tag) {
+        update(key, 0, 0, tagBit(tag));
+    }
+
+    // Puts back saved tags and their timestamp without telling the change listener. Saved tags are
+    // merged into whatever the key picked up since startup rather than replacing it.
+    public void restore(UrlKey key, int tags, long timeSeconds) {
+        long old = entries.update(key.hash(), (tags & ~QUEUED) | QUEUED, 0, 0, timeSeconds, key.value());
+        if (old == LongTagMap.ABSENT || (old & QUEUED) == 0) {
+            enqueue(key);
+        }
+    }
+
+    // Merges tags from elsewhere, such as an import, keeping their timestamp. Unlike restore
+    // this is a real change, so the change listener hears about it.
+    public void merge(UrlKey key, int tags, long timeSeconds) {
+        update(key, tags & ~QUEUED, 0, 0, timeSeconds);
+    }
+
+    public interface EntryVisitor {
+        void visit(UrlKey key, int tags, long timeSeconds);
+    }
+
+    // Visits every key with its tags; see LongTagMap.forEach for how this interacts with writers
+    public void forEach(EntryVisitor visitor) {
+        entries.forEach((hash, mask, timeSeconds, value) ->
+            visitor.visit(UrlKey.restore(hash, value), mask & ~QUEUED, timeSeconds));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long memoryBytes() {
+        return entries.memoryBytes();
+    }
+
+    // Drops everything; the UI notices the generation change and resets its rows
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        history.clear();
+        pending.clear();
+        pendingCount.set(0);
+    }
+
+    public int generation() {
+        return generation.get();
+    }
+
+    // Takes up to max changed keys off the queue. Each key is only queued once until it is
+    // drained, however many times it changes in between.
+    public List<UrlKey> drainPending(int max) {
+        List<UrlKey> batch = new ArrayList<>();
+        UrlKey key;
+        while (batch.size() < max && (key = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            entries.updateIfPresent(key.hash(), 0, QUEUED, 0, LongTagMap.KEEP_TIME);
+            batch.add(key);
+        }
+        return batch;
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    // Keys waiting for the UI; bulk writers can hold off while this is high
+    public int pendingCount() {
+        return pendingCount.get();
+    }
+
+    private void enqueue(UrlKey key) {
+        pending.add(key);
+        pendingCount.incrementAndGet();
+    }
+
+    // Applies the change and queues the key for the UI if it isn't queued already
+    private long update(UrlKey key, int set, int clear, int flip) {
+        return update(key, set, clear, flip, System.currentTimeMillis() / 1000);
+    }
+
+    private long update(UrlKey key, int set, int clear, int flip, long now) {
+        long old = entries.update(key.hash(), set | QUEUED, clear, flip, now, key.value());
+        if (old == LongTagMap.ABSENT || (old & QUEUED) == 0) {
+            enqueue(key);
+        }
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            int oldTags = old == LongTagMap.ABSENT ? 0 : (int) old & ~QUEUED;
+            int newTags = ((oldTags | set) & ~clear) ^ flip;
+            if (old == LongTagMap.ABSENT || newTags != oldTags) {
+                listener.changed(key, oldTags, newTags, now);
+            }
+        }
+        return old;
+    }
+}
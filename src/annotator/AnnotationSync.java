@@ -0,0 +1,596 @@
+package annotator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Replicates tag changes (scan marks included) between testers working the same target.
+//
+// Every (key, tag) pair is a last-writer-wins register stamped with a Lamport clock, so replicas
+// that see the same changes in any order end up with the same tags, and concurrent edits to
+// different tags of a URL both survive. A stamp is one long: the clock, then 24 bits of the
+// replica id to break ties, then the value (set or cleared) in the low bit.
+//
+// Local changes come in through the store's change listener, get stamped on the sync thread and
+// go out as gzipped batches numbered per replica. A change the store no longer shows by the time
+// it's stamped was undone by a remote op applied in between, and isn't stamped, so it can't beat
+// that newer op. Each replica remembers the last batch it has applied from every other one (a
+// version vector). Batches are applied strictly in order, so the vector never moves past one it
+// hasn't seen, and coming back after hours offline only fetches the batches published since.
+// A batch that can't be read is retried for a while before it's skipped. Remote changes are
+// applied on the sync thread and aren't sent back out. The clock, the vector, the stamps and
+// anything not yet published are saved next to the journal, so a restart picks up where it left
+// off; each batch is also written there before it's published, so a crash between saves never
+// reuses a batch number or clock values others have already seen.
+//
+// Each time sync starts, the store is compared with the stamps and whatever differs is published,
+// which covers everything there before the first sync and changes made while it was off.
+public class AnnotationSync implements AnnotationStore.ChangeListener {
+    private static final int BATCH_MAGIC = 0x414e4e53; // "ANNS"
+    private static final int STATE_MAGIC = 0x414e4e54; // "ANNT"
+    private static final int OUTGOING_MAGIC = 0x414e4e4f; // "ANNO"
+    private static final int VERSION = 1;
+    private static final int COUNTER_SHIFT = 25;
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // How long an unreadable batch is retried, in case it's still being copied into place
+    private static final long BAD_BATCH_RETRY_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int MAX_BATCH_OPS = 20_000;
+    private static final int FETCH_BATCHES = 16;
+    // Like imports, wait while the UI has this many changes left to show
+    private static final int MAX_BACKLOG = 100_000;
+
+    private final AnnotationStore store;
+    private final SyncTransport transport;
+    private final Path stateFile;
+    private final Path outgoingFile;
+    private final long intervalNanos;
+    private final Consumer<String> errorLog;
+    private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final LongAdder sent;
+    private final LongAdder received;
+
+    // Only the sync thread touches these once it's started
+    private String replica;
+    private long replicaBits;
+    private long clock;
+    private long nextSeq = 1;
+    private final Map<String, Long> applied = new HashMap<>();
+    private final Map<String, Stamps> stamps = new HashMap<>();
+    private final List<Op> outbox = new ArrayList<>();
+    // Per replica, the batch that couldn't be read and since when
+    private final Map<String, Failure> failing = new HashMap<>();
+    // The last batch written before publishing, if a restart has to publish it again
+    private Outgoing pending;
+    private boolean reconcile = true;
+    private boolean dirty;
+    private String lastError;
+
+    private volatile boolean running;
+    private volatile int backlog;
+    private volatile Thread thread;
+
+    private record Change(UrlKey key, int changedBits, int newTags, long timeSeconds) { }
+
+    private record Op(long hash, String value, String tag, long stamp, long timeSeconds) { }
+
+    private record Failure(long seq, long sinceNanos) { }
+
+    private record Outgoing(long seq, byte[] data) { }
+
+    public AnnotationSync(AnnotationStore store, SyncTransport transport, Path stateFile, Consumer<String> errorLog,
+                          Metrics metrics) {
+        this(store, transport, stateFile, errorLog, metrics, INTERVAL_NANOS);
+    }
+
+    // Tests sync more often than every two seconds
+    AnnotationSync(AnnotationStore store, SyncTransport transport, Path stateFile, Consumer<String> errorLog,
+                   Metrics metrics, long intervalNanos) {
+        this.store = store;
+        this.transport = transport;
+        this.stateFile = stateFile;
+        this.outgoingFile = stateFile.resolveSibling(stateFile.getFileName() + ".outgoing");
+        this.intervalNanos = intervalNanos;
+        this.errorLog = errorLog;
+        this.sent = metrics.counter("sync sent");
+        this.received = metrics.counter("sync received");
+        metrics.gauge("Sync outbox", Metrics.Unit.COUNT, () -> backlog);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        loadState();
+        running = true;
+        thread = new Thread(this::run, "Annotator sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Publishes what's left if the transport lets it, saves the state and closes the transport
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String describe() {
+        return transport.describe();
+    }
+
+    // Never blocks; changes made by the sync thread itself came from another replica
+    @Override
+    public void changed(UrlKey key, int oldTags, int newTags, long timeSeconds) {
+        if (running && Thread.currentThread() != thread && oldTags != newTags) {
+            changes.offer(new Change(key, oldTags ^ newTags, newTags, timeSeconds));
+        }
+    }
+
+    private void run() {
+        long lastSave = System.nanoTime();
+        while (true) {
+            boolean stopping = !running;
+            try {
+                if (reconcile) {
+                    reconcile();
+                }
+                stampChanges();
+                publish();
+                if (!stopping) {
+                    fetchAndApply();
+                }
+                lastError = null;
+            } catch (IOException | RuntimeException e) {
+                // Offline or a bad share; keep what we have and try again next time round
+                String message = "Annotation sync: " + e.getMessage();
+                if (!message.equals(lastError)) {
+                    errorLog.accept(message);
+                    lastError = message;
+                }
+            }
+            backlog = outbox.size();
+            if (stopping || (dirty && System.nanoTime() - lastSave > SAVE_INTERVAL_NANOS)) {
+                saveState();
+                lastSave = System.nanoTime();
+            }
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(intervalNanos);
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Nothing left to send
+        }
+    }
+
+    // Tags set with no stamp, or whose stamp says otherwise, changed while we weren't listening
+    private void reconcile() {
+        TagRegistry.Tag[] all = store.tagRegistry().all();
+        store.forEach((key, tags, timeSeconds) -> {
+            for (TagRegistry.Tag tag : all) {
+                boolean set = (tags & tag.bit()) != 0;
+                Stamps tagStamps = stamps.get(tag.name());
+                long stamp = tagStamps == null ? 0 : tagStamps.get(key.hash());
+                if (stamp == 0 ? set : ((stamp & 1) != 0) != set) {
+                    stampLocal(key, tag.name(), set, timeSeconds);
+                }
+            }
+        });
+        reconcile = false;
+    }
+
+    // Only changes the store still shows get stamped. If it shows otherwise, either a later local
+    // change will be stamped in turn, or a remote op applied since has overridden this one, and
+    // a fresh stamp would wrongly let the older change win everywhere else.
+    private void stampChanges() {
+        TagRegistry registry = store.tagRegistry();
+        Change change;
+        while ((change = changes.poll()) != null) {
+            int current = store.tags(change.key);
+            for (int bits = change.changedBits; bits != 0; bits &= bits - 1) {
+                int id = Integer.numberOfTrailingZeros(bits);
+                TagRegistry.Tag tag = registry.get(id);
+                boolean set = (change.newTags & (1 << id)) != 0;
+                if (tag != null && ((current & (1 << id)) != 0) == set) {
+                    stampLocal(change.key, tag.name(), set, change.timeSeconds);
+                }
+            }
+        }
+    }
+
+    private void stampLocal(UrlKey key, String tag, boolean set, long timeSeconds) {
+        long stamp = (++clock << COUNTER_SHIFT) | replicaBits | (set ? 1 : 0);
+        stampsFor(tag).put(key.hash(), stamp);
+        outbox.add(new Op(key.hash(), key.value(), tag, stamp, timeSeconds));
+        dirty = true;
+    }
+
+    private void publish() throws IOException {
+        if (pending != null) {
+            transport.publish(replica, pending.seq, pending.data);
+            pending = null;
+        }
+        while (!outbox.isEmpty()) {
+            List<Op> batch = outbox.subList(0, Math.min(MAX_BATCH_OPS, outbox.size()));
+            byte[] data = encodeBatch(batch);
+            writeOutgoing(nextSeq, data);
+            transport.publish(replica, nextSeq, data);
+            nextSeq++;
+            sent.add(batch.size());
+            batch.clear();
+            dirty = true;
+        }
+    }
+
+    // Only the batch right after the last one applied from a replica is applied, so a batch that
+    // arrives early waits for the ones before it. Replicas held up by a batch that can't be read
+    // yet are left out of further fetches this time round.
+    private void fetchAndApply() throws IOException {
+        Map<String, Long> after = new HashMap<>(applied);
+        Set<String> held = new HashSet<>();
+        while (running) {
+            List<SyncTransport.Batch> batches = transport.fetch(replica, after, FETCH_BATCHES);
+            boolean progress = false;
+            for (SyncTransport.Batch batch : batches) {
+                String from = batch.replica();
+                long last = applied.getOrDefault(from, 0L);
+                if (held.contains(from) || batch.seq() != last + 1) {
+                    continue;
+                }
+                List<Op> ops;
+                try {
+                    ops = decodeBatch(batch.data());
+                } catch (IOException e) {
+                    if (!giveUp(batch, e)) {
+                        held.add(from);
+                        after.put(from, Long.MAX_VALUE);
+                        continue;
+                    }
+                    ops = List.of();
+                }
+                for (Op op : ops) {
+                    apply(op);
+                }
+                failing.remove(from);
+                applied.put(from, batch.seq());
+                after.put(from, batch.seq());
+                dirty = true;
+                progress = true;
+                waitForUi();
+            }
+            if (!progress) {
+                return;
+            }
+        }
+    }
+
+    // A batch that can't be read may still be on its way, say a synced folder copying it in, so
+    // it's only skipped once it has failed for a while. Its replica's later batches apply after.
+    private boolean giveUp(SyncTransport.Batch batch, IOException e) {
+        long now = System.nanoTime();
+        Failure failure = failing.get(batch.replica());
+        if (failure == null || failure.seq != batch.seq()) {
+            failing.put(batch.replica(), new Failure(batch.seq(), now));
+            return false;
+        }
+        if (now - failure.sinceNanos < BAD_BATCH_RETRY_NANOS) {
+            return false;
+        }
+        errorLog.accept("Annotation sync: skipping batch " + batch.seq() + " from "
+            + batch.replica() + ": " + e.getMessage());
+        return true;
+    }
+
+    private void apply(Op op) {
+        clock = Math.max(clock, op.stamp >>> COUNTER_SHIFT);
+        Stamps tagStamps = stampsFor(op.tag);
+        if (op.stamp <= tagStamps.get(op.hash)) {
+            return;
+        }
+        tagStamps.put(op.hash, op.stamp);
+        received.increment();
+        UrlKey key = UrlKey.restore(op.hash, op.value);
+        if ((op.stamp & 1) == 0) {
+            store.removeTag(key, op.tag);
+            return;
+        }
+        int bit;
+        try {
+            bit = store.tagRegistry().add(op.tag, TagRegistry.DEFAULT_COLOR).bit();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // No room for the tag here
+            return;
+        }
+        store.merge(key, bit, op.timeSeconds);
+    }
+
+    private void waitForUi() {
+        while (running && store.pendingCount() > MAX_BACKLOG) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+    }
+
+    private Stamps stampsFor(String tag) {
+        return stamps.computeIfAbsent(tag, t -> new Stamps());
+    }
+
+    private byte[] encodeBatch(List<Op> ops) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes), 1 << 16))) {
+            out.writeInt(BATCH_MAGIC);
+            out.writeInt(VERSION);
+            // Tag names once up front, ops refer to them by index
+            Map<String, Integer> tagIndex = new LinkedHashMap<>();
+            for (Op op : ops) {
+                tagIndex.putIfAbsent(op.tag, tagIndex.size());
+            }
+            out.writeInt(tagIndex.size());
+            for (String tag : tagIndex.keySet()) {
+                out.writeUTF(tag);
+            }
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                out.writeLong(op.hash);
+                out.writeUTF(op.value);
+                out.writeInt(tagIndex.get(op.tag));
+                out.writeLong(op.stamp);
+                out.writeLong(op.timeSeconds);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Op> decodeBatch(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(data)), 1 << 16))) {
+            if (in.readInt() != BATCH_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a sync batch this version can read");
+            }
+            // A batch never names more tags than it has ops
+            String[] tags = new String[readCount(in, MAX_BATCH_OPS)];
+            for (int i = 0; i < tags.length; i++) {
+                tags[i] = in.readUTF();
+            }
+            int count = readCount(in, MAX_BATCH_OPS);
+            List<Op> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long hash = in.readLong();
+                String value = in.readUTF();
+                int tag = in.readInt();
+                if (tag < 0 || tag >= tags.length) {
+                    throw new IOException("bad tag index " + tag);
+                }
+                ops.add(new Op(hash, value, tags[tag], in.readLong(), in.readLong()));
+            }
+            return ops;
+        }
+    }
+
+    // Counts come from files and other replicas' batches, so a corrupt one has to fail as an
+    // IOException like any other bad data, not as a huge or negative allocation
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("bad count " + count);
+        }
+        return count;
+    }
+
+    private void loadState() throws IOException {
+        if (!Files.exists(stateFile)) {
+            byte[] id = new byte[8];
+            new SecureRandom().nextBytes(id);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : id) {
+                hex.append(String.format("%02x", b));
+            }
+            setReplica(hex.toString());
+            dirty = true;
+            return;
+        }
+        try (InputStream file = Files.newInputStream(stateFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file), 1 << 16))) {
+            if (in.readInt() != STATE_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unreadable sync state " + stateFile);
+            }
+            setReplica(in.readUTF());
+            clock = in.readLong();
+            nextSeq = in.readLong();
+            for (int i = readCount(in, Integer.MAX_VALUE); i > 0; i--) {
+                applied.put(in.readUTF(), in.readLong());
+            }
+            for (int i = readCount(in, Integer.MAX_VALUE); i > 0; i--) {
+                Stamps tagStamps = stampsFor(in.readUTF());
+                for (int n = readCount(in, Integer.MAX_VALUE); n > 0; n--) {
+                    tagStamps.put(in.readLong(), in.readLong());
+                }
+            }
+            for (int i = readCount(in, Integer.MAX_VALUE); i > 0; i--) {
+                outbox.add(new Op(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong()));
+            }
+        }
+        loadOutgoing();
+    }
+
+    // A batch written after the state was last saved may have been published, so its seq and
+    // clock are taken as used, and it's published again in case it never made it out
+    private void loadOutgoing() throws IOException {
+        if (!Files.exists(outgoingFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(outgoingFile)))) {
+            if (in.readInt() != OUTGOING_MAGIC || in.readInt() != VERSION || !in.readUTF().equals(replica)) {
+                return;
+            }
+            long seq = in.readLong();
+            long batchClock = in.readLong();
+            byte[] data = new byte[readCount(in, (int) Math.min(Files.size(outgoingFile), Integer.MAX_VALUE))];
+            in.readFully(data);
+            clock = Math.max(clock, batchClock);
+            if (seq >= nextSeq) {
+                pending = new Outgoing(seq, data);
+                nextSeq = seq + 1;
+            }
+        } catch (EOFException e) {
+            // Cut short, so it never got as far as being published
+        }
+    }
+
+    private void writeOutgoing(long seq, byte[] data) throws IOException {
+        Path tmp = outgoingFile.resolveSibling(outgoingFile.getFileName() + ".tmp");
+        Files.createDirectories(outgoingFile.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(OUTGOING_MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(replica);
+            out.writeLong(seq);
+            out.writeLong(clock);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        Files.move(tmp, outgoingFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void setReplica(String replica) {
+        this.replica = replica;
+        this.replicaBits = ((long) replica.hashCode() & 0xffffff) << 1;
+    }
+
+    private void saveState() {
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(stateFile.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16), 1 << 16))) {
+                out.writeInt(STATE_MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(replica);
+                out.writeLong(clock);
+                out.writeLong(nextSeq);
+                out.writeInt(applied.size());
+                for (Map.Entry<String, Long> entry : applied.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                out.writeInt(stamps.size());
+                for (Map.Entry<String, Stamps> entry : stamps.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+                out.writeInt(outbox.size());
+                for (Op op : outbox) {
+                    out.writeLong(op.hash);
+                    out.writeUTF(op.value);
+                    out.writeUTF(op.tag);
+                    out.writeLong(op.stamp);
+                    out.writeLong(op.timeSeconds);
+                }
+            }
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            errorLog.accept("Annotation sync state not saved: " + e.getMessage());
+        }
+    }
+
+    // Open-addressing map from key hash to stamp, 0 for keys without one. Only the sync thread
+    // uses it, so there's no locking.
+    private static final class Stamps {
+        private long[] keys = new long[64];
+        private long[] values = new long[64];
+        private int size;
+
+        long get(long key) {
+            key = key == 0 ? 1 : key;
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return 0;
+        }
+
+        void put(long key, long value) {
+            key = key == 0 ? 1 : key;
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            values[i] = value;
+            if (keys[i] == 0) {
+                keys[i] = key;
+                if (++size > keys.length / 2) {
+                    grow();
+                }
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(values[i]);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[keys.length];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != 0) {
+                    int i = slot(oldKeys[j], mask);
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) * 0x9e3779b9 & mask;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package annotator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Export and import of the store's annotations, for handing them between testers and projects.
+// Two formats: line-delimited JSON, one object per key, and a gzipped binary form for big sets.
+// Both stream in both directions: exports walk the store a segment at a time and imports
+// merge as they read, so neither ever holds the whole set.
+//
+// Tags travel by name. Names the importing side doesn't know are registered, so custom tags
+// survive the trip as long as there is room for them.
+public final class AnnotationTransfer {
+    private static final int BINARY_MAGIC = 0x414e4e58; // "ANNX"
+    private static final int VERSION = 1;
+    private static final int IMPORT_BATCH = 5000;
+    // Imports wait while the UI has this many changes left to show
+    private static final int MAX_BACKLOG = 100_000;
+
+    public enum Format {
+        NDJSON, BINARY;
+
+        // .bin and .annx files are binary, anything else is JSON lines
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".bin") || name.endsWith(".annx") ? BINARY : NDJSON;
+        }
+    }
+
+    public record Result(long imported, long skipped) { }
+
+    private AnnotationTransfer() {
+    }
+
+    // Returns the number of keys written
+    public static long export(AnnotationStore store, Path file) throws IOException {
+        long[] count = {0};
+        TagRegistry registry = store.tagRegistry();
+        try {
+            if (Format.forFile(file) == Format.BINARY) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(Files.newOutputStream(file), 1 << 16), 1 << 16))) {
+                    out.writeInt(BINARY_MAGIC);
+                    out.writeInt(VERSION);
+                    // Tag table first, masks in the records use these ids
+                    TagRegistry.Tag[] tags = registry.all();
+                    out.writeInt(tags.length);
+                    for (TagRegistry.Tag tag : tags) {
+                        out.writeUTF(tag.name());
+                    }
+                    store.forEach((key, mask, timeSeconds) -> {
+                        try {
+                            out.writeBoolean(true);
+                            out.writeLong(key.hash());
+                            out.writeInt(mask);
+                            out.writeLong(timeSeconds);
+                            out.writeUTF(key.value());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        count[0]++;
+                    });
+                    out.writeBoolean(false);
+                }
+            } else {
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                    StringBuilder line = new StringBuilder(256);
+                    store.forEach((key, mask, timeSeconds) -> {
+                        line.setLength(0);
+                        line.append("{\"key\":");
+                        appendJsonString(line, key.value());
+                        line.append(",\"hash\":\"").append(Long.toHexString(key.hash())).append("\",\"tags\":[");
+                        boolean first = true;
+                        for (String name : registry.names(mask)) {
+                            if (!first) {
+                                line.append(',');
+                            }
+                            appendJsonString(line, name);
+                            first = false;
+                        }
+                        line.append("],\"time\":").append(timeSeconds).append("}\n");
+                        try {
+                            out.append(line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        count[0]++;
+                    });
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    // Merges the file into the store. Progress gets the bytes read so far; the import stops
+    // early, keeping what was merged, once cancelled returns true.
+    // Keys that don't fit the store's key mode are skipped. Endpoint keys can drop down to their
+    // URL, but URL keys don't say which endpoint they were.
+    public static Result importFrom(AnnotationStore store, Path file, LongConsumer progress,
+                                    BooleanSupplier cancelled) throws IOException {
+        try (CountingInputStream counting = new CountingInputStream(Files.newInputStream(file))) {
+            Importer importer = new Importer(store, counting, progress, cancelled);
+            if (Format.forFile(file) == Format.BINARY) {
+                importer.readBinary();
+            } else {
+                importer.readJsonLines();
+            }
+            return new Result(importer.imported, importer.skipped);
+        }
+    }
+
+    private static final class Importer {
+        private final AnnotationStore store;
+        private final CountingInputStream in;
+        private final LongConsumer progress;
+        private final BooleanSupplier cancelled;
+        private final Map<String, Integer> bitsByName = new HashMap<>();
+        private long imported;
+        private long skipped;
+        private boolean stopped;
+
+        Importer(AnnotationStore store, CountingInputStream in, LongConsumer progress, BooleanSupplier cancelled) {
+            this.store = store;
+            this.in = in;
+            this.progress = progress;
+            this.cancelled = cancelled;
+        }
+
+        void readBinary() throws IOException {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16));
+            if (data.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not an annotation export");
+            }
+            int version = data.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported export version " + version);
+            }
+            int[] bits = new int[data.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = bit(data.readUTF());
+            }
+            while (!stopped && data.readBoolean()) {
+                long hash = data.readLong();
+                int fileMask = data.readInt();
+                long time = data.readLong();
+                String value = data.readUTF();
+                int mask = 0;
+                for (int i = 0; i < bits.length && i < 32; i++) {
+                    if ((fileMask & (1 << i)) != 0) {
+                        mask |= bits[i];
+                    }
+                }
+                merge(UrlKey.restore(hash, value), mask, time);
+            }
+        }
+
+        void readJsonLines() throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            String line;
+            while (!stopped && (line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonLine json = new JsonLine(line);
+                    if (json.key == null) {
+                        skipped++;
+                        continue;
+                    }
+                    UrlKey key = json.hash != null
+                        ? UrlKey.restore(Long.parseUnsignedLong(json.hash, 16), json.key)
+                        : UrlKey.of(json.key);
+                    int mask = 0;
+                    for (String tag : json.tags) {
+                        mask |= bit(tag);
+                    }
+                    merge(key, mask, json.time >= 0 ? json.time : System.currentTimeMillis() / 1000);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    skipped++;
+                }
+            }
+        }
+
+        private void merge(UrlKey key, int mask, long time) throws IOException {
+            if (key.isEndpoint() && store.keyMode() == KeyMode.URL) {
+                key = UrlKey.of(key.url());
+            } else if (!key.isEndpoint() && store.keyMode() == KeyMode.ENDPOINT) {
+                skipped++;
+                return;
+            }
+            store.merge(key, mask, time);
+            imported++;
+            if (imported % IMPORT_BATCH == 0) {
+                endBatch();
+            }
+        }
+
+        // Reports progress and gives the UI a chance to catch up, so a big import streams into
+        // the table instead of piling up in the store's queue
+        private void endBatch() throws IOException {
+            progress.accept(in.count);
+            try {
+                while (store.pendingCount() > MAX_BACKLOG && !cancelled.getAsBoolean()) {
+                    Thread.sleep(20);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted");
+            }
+            stopped = cancelled.getAsBoolean();
+        }
+
+        // 0 for a tag we can't register
+        private int bit(String name) {
+            return bitsByName.computeIfAbsent(name, n -> {
+                try {
+                    return store.tagRegistry().add(n, TagRegistry.DEFAULT_COLOR).bit();
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    return 0;
+                }
+            });
+        }
+    }
+
+    // Just enough JSON for our own lines: a flat object with "key", "hash", "tags" and "time".
+    // Other members are skipped, so newer exports still load.
+    private static final class JsonLine {
+        private final String s;
+        private int pos;
+        String key;
+        String hash;
+        final List<String> tags = new ArrayList<>();
+        long time = -1;
+
+        JsonLine(String s) {
+            this.s = s;
+            expect('{');
+            if (peek() == '}') {
+                return;
+            }
+            do {
+                String name = readString();
+                expect(':');
+                switch (name) {
+                    case "key" -> key = readString();
+                    case "hash" -> hash = readString();
+                    case "time" -> time = Long.parseLong(readNumber());
+                    case "tags" -> {
+                        expect('[');
+                        if (peek() != ']') {
+                            do {
+                                tags.add(readString());
+                            } while (accept(','));
+                        }
+                        expect(']');
+                    }
+                    default -> skipValue();
+                }
+            } while (accept(','));
+            expect('}');
+        }
+
+        private char peek() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= s.length()) {
+                throw new IllegalArgumentException("Unexpected end of line");
+            }
+            return s.charAt(pos);
+        }
+
+        private boolean accept(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = s.charAt(pos++);
+                switch (escaped) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        sb.append((char) Integer.parseInt(s, pos, pos + 4, 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escaped);
+                }
+            }
+        }
+
+        private String readNumber() {
+            peek();
+            int start = pos;
+            while (pos < s.length() && "+-.0123456789eE".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+            return s.substring(start, pos);
+        }
+
+        private void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '[' || c == '{') {
+                char close = c == '[' ? ']' : '}';
+                pos++;
+                if (peek() != close) {
+                    do {
+                        if (c == '{') {
+                            readString();
+                            expect(':');
+                        }
+                        skipValue();
+                    } while (accept(','));
+                }
+                expect(close);
+            } else {
+                // Number, true, false or null
+                while (pos < s.length() && ",}]".indexOf(s.charAt(pos)) < 0) {
+                    pos++;
+                }
+            }
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
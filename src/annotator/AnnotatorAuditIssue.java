@@ -1,25 +1,41 @@
 package annotator;
 
+import burp.api.montoya.core.ByteArray;
 import burp.api.montoya.scanner.audit.issues.AuditIssue;
 import burp.api.montoya.scanner.audit.issues.AuditIssueConfidence;
 import burp.api.montoya.scanner.audit.issues.AuditIssueSeverity;
 import burp.api.montoya.scanner.audit.issues.AuditIssueDefinition;
+import burp.api.montoya.http.message.ContentType;
 import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.params.HttpParameter;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.collaborator.Interaction;
 import burp.api.montoya.http.HttpService;
 
-
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Marker issue: all it says is that a URL was scanned, so it only keeps the request, with the
+// body cut down to MAX_BODY_BYTES or less (see trim), and no response.
+// Issues stay alive as long as Burp holds them, which on a large scan is a lot of them.
 public class AnnotatorAuditIssue implements AuditIssue {
+    private static final int MAX_BODY_BYTES = 4096;
+    // Our issue names always come with the same text, so one definition per name does
+    private static final Map<String, AuditIssueDefinition> DEFINITIONS = new ConcurrentHashMap<>();
+
     private final String name;
     private final String detail;
     private final String remediation;
-    private final HttpRequestResponse requestResponse;
+    private final List<HttpRequestResponse> requestResponses;
     private final AuditIssueSeverity severity;
     private final AuditIssueConfidence confidence;
     private final HttpService httpService;
+    private final String baseUrl;
 
     public AnnotatorAuditIssue(
             String name,
@@ -31,10 +47,86 @@ public class AnnotatorAuditIssue implements AuditIssue {
         this.name = name;
         this.remediation = remediation;
         this.detail = detail;
-        this.requestResponse = requestResponse;
         this.severity = severity;
         this.confidence = confidence;
         this.httpService = requestResponse.httpService();
+        HttpRequest request = trim(requestResponse.request());
+        this.requestResponses = List.of(HttpRequestResponse.httpRequestResponse(request, null));
+        this.baseUrl = request.url();
+    }
+
+    // Issue about a whole host, without any request attached
+    public AnnotatorAuditIssue(
+            String name,
+            String remediation,
+            String detail,
+            HttpService httpService,
+            String baseUrl,
+            AuditIssueSeverity severity,
+            AuditIssueConfidence confidence) {
+        this.name = name;
+        this.remediation = remediation;
+        this.detail = detail;
+        this.requestResponses = List.of();
+        this.severity = severity;
+        this.confidence = confidence;
+        this.httpService = httpService;
+        this.baseUrl = baseUrl;
+    }
+
+    // Loading issues back in endpoint mode keys them by the request's parameter names, so a cut
+    // body must keep them all. A url-encoded or JSON body that loses some is rebuilt from its
+    // names with empty values instead. Anything else (XML, multipart, JSON that doesn't rebuild
+    // to the same names) loses its body, and the names go in a header for keyFor to read.
+    private static HttpRequest trim(HttpRequest request) {
+        ByteArray body = request.body();
+        if (body == null || body.length() <= MAX_BODY_BYTES) {
+            return request;
+        }
+        long key = UrlKey.hashOf(request, KeyMode.ENDPOINT);
+        HttpRequest cut = request.withBody(body.subArray(0, MAX_BODY_BYTES));
+        if (UrlKey.hashOf(cut, KeyMode.ENDPOINT) == key) {
+            return cut;
+        }
+        HttpRequest rebuilt = null;
+        if (request.contentType() == ContentType.URL_ENCODED) {
+            List<HttpParameter> names = new ArrayList<>();
+            for (ParsedHttpParameter parameter : request.parameters(HttpParameterType.BODY)) {
+                names.add(HttpParameter.bodyParameter(parameter.name(), ""));
+            }
+            rebuilt = request.withBody("").withAddedParameters(names);
+        } else if (request.contentType() == ContentType.JSON) {
+            rebuilt = request.withBody(jsonSkeleton(request.parameters(HttpParameterType.JSON)));
+        }
+        if (rebuilt != null && UrlKey.hashOf(rebuilt, KeyMode.ENDPOINT) == key) {
+            return rebuilt;
+        }
+        return request.withBody("").withAddedHeader(UrlKey.PARAMS_HEADER, UrlKey.paramsHeader(request));
+    }
+
+    // Flat object with every name set to "". Nested bodies don't always parse back to the same
+    // names, which is why trim checks the key before using it.
+    private static String jsonSkeleton(List<ParsedHttpParameter> parameters) {
+        StringBuilder sb = new StringBuilder("{");
+        for (ParsedHttpParameter parameter : parameters) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"');
+            String name = parameter.name();
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append("\":\"\"");
+        }
+        return sb.append('}').toString();
     }
 
     @Override
@@ -44,7 +136,7 @@ public class AnnotatorAuditIssue implements AuditIssue {
 
     @Override 
     public List<HttpRequestResponse> requestResponses() {
-        return List.of(requestResponse);
+        return requestResponses;
     }
 
     @Override
@@ -80,16 +172,16 @@ public class AnnotatorAuditIssue implements AuditIssue {
 
     @Override
     public String baseUrl() {
-        return requestResponse.request().url().toString();
+        return baseUrl;
     }
 
     @Override
     public AuditIssueDefinition definition() {
-        return AuditIssueDefinition.auditIssueDefinition(
-            name,
+        return DEFINITIONS.computeIfAbsent(name, n -> AuditIssueDefinition.auditIssueDefinition(
+            n,
             detail,
             remediation,
             severity
-        );
+        ));
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,11 @@ import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.extension.ExtensionUnloadingHandler;
 import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.handler.RequestToBeSentAction;
+import burp.api.montoya.http.handler.ResponseReceivedAction;
 import burp.api.montoya.http.message.HttpRequestResponse;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.scanner.audit.issues.AuditIssue;
@@ -26,51 +31,380 @@ import annotator.AnnotatorScanCheck;
 import annotator.ScannedUrlsPanel;
 
 import javax.swing.*;
+import javax.swing.Timer;
 import java.awt.*;
-import java.net.URL;
+import java.awt.event.HierarchyEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AnnotatorExtension implements BurpExtension {
 
     private MontoyaApi api;
-    private final Map<String, String> annotations = new ConcurrentHashMap<>();
     private static final String SCANNED_ISSUE_NAME = "[Annotator] Active Scanned";
     private static final String SCANNED_ISSUE_DETAIL = "This URL has been actively scanned.";
+    private static final int HYDRATION_CHUNK_SIZE = 1000;
+    // Selection changes closer together than this only look up the last one
+    private static final int EDITOR_DEBOUNCE_MS = 75;
+    private static final String KEY_MODE_PREFERENCE = "annotator.keyMode";
+    private static final String TAGS_KEY = "annotator.tags";
+    private static final String PASSIVE_RULES_PREFERENCE = "annotator.passiveRules";
+    private static final String ISSUE_MODE_PREFERENCE = "annotator.issueMode";
+    // Saved with the project, the folder belongs to the engagement
+    private static final String SYNC_DIR_KEY = "annotator.syncDir";
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private final AnnotationStore store = new AnnotationStore();
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Timer editorTimer = metrics.timer("editor");
+    private final Metrics.Timer contextMenuTimer = metrics.timer("context menu");
+    private final Metrics.Timer hydrationTimer = metrics.timer("hydration");
+    private final LongAdder hydratedIssues = metrics.counter("hydrated issues");
+    private final LongAdder sentToTable = metrics.counter("sent to table");
+    private final LongAdder editorSuperseded = metrics.counter("editor skipped");
+    // Annotation tab lookups, one at a time and never on the EDT
+    private final ExecutorService editorLookups = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Annotator editor lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Key mode switches wait for the old journal to finish writing, so they run here in order
+    private final ExecutorService keyModeChanges = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Annotator key mode");
+        thread.setDaemon(true);
+        return thread;
+    });
     private ScannedUrlsPanel scannedUrlsPanel;
+    private Thread hydration;
+    private volatile AnnotationJournal journal;
+    private CoverageGapJob coverageGapJob;
+    private volatile boolean coverageGapCancelled;
+    private Thread coverageGapThread;
+    private AnnotatorScanCheck scanCheck;
+    private ToolTrafficRecorder toolTraffic;
+    private volatile AnnotationSync sync;
 
     @Override
     public void initialize(MontoyaApi api) {
         this.api = api;
         api.extension().setName("Sitemap Annotator");
 
+        String savedMode = api.persistence().preferences().getString(KEY_MODE_PREFERENCE);
+        if (savedMode != null) {
+            try {
+                store.setKeyMode(KeyMode.valueOf(savedMode));
+            } catch (IllegalArgumentException e) {
+                api.logging().logToError("Unknown key mode: " + savedMode);
+            }
+        }
+
+        // Custom tags are saved with the project
+        String savedTags = api.persistence().extensionData().getString(TAGS_KEY);
+        if (savedTags != null) {
+            store.tagRegistry().load(savedTags);
+        }
+        store.tagRegistry().setChangeListener(() ->
+            api.persistence().extensionData().setString(TAGS_KEY, store.tagRegistry().serialize()));
+
         // Initialize the scanned URLs panel
-        scannedUrlsPanel = new ScannedUrlsPanel();
+        scannedUrlsPanel = new ScannedUrlsPanel(store);
         api.userInterface().registerSuiteTab("Scanned URLs", scannedUrlsPanel);
-
-        // Populate the panel with existing issues from the sitemap
-        api.siteMap().issues().stream()
-            .filter(issue -> issue.name().equals(SCANNED_ISSUE_NAME))
-            .forEach(issue -> {
-                try {
-                    String url = issue.baseUrl();
-                    String normalized = normalizeUrl(new URL(url));
-                    scannedUrlsPanel.addScannedUrl(normalized, "Scanned");
-                    annotations.put(normalized, "Scanned (active scan)");
-                } catch (Exception e) {
-                    api.logging().logToError("Error processing existing issue: " + e.getMessage());
-                }
-            });
+        api.extension().registerUnloadingHandler(scannedUrlsPanel::dispose);
+        scannedUrlsPanel.setKeyModeListener(this::changeKeyMode);
+        metrics.gauge("Stored URLs", Metrics.Unit.COUNT, store::size);
+        metrics.gauge("Pending rows", Metrics.Unit.COUNT, store::pendingCount);
+        metrics.gauge("Store memory", Metrics.Unit.BYTES, store::memoryBytes);
+        metrics.gauge("Stale URLs", Metrics.Unit.COUNT, store.history()::staleCount);
+        metrics.gauge("History memory", Metrics.Unit.BYTES, store.history()::memoryBytes);
+        SwingUtilities.invokeLater(() -> scannedUrlsPanel.showStats(metrics, api.logging()::logToOutput));
+
+        // Populate the panel from the saved annotations and the sitemap's issues in the background
+        openJournal();
+        startHydration();
+        api.extension().registerUnloadingHandler(this::stopHydration);
+        // Sync stops first so the last changes it applies still reach the journal
+        api.extension().registerUnloadingHandler(this::stopSync);
+        api.extension().registerUnloadingHandler(() -> journal.close());
+        scannedUrlsPanel.setSyncActions(this::syncStatus, this::startSync, this::turnOffSync);
+
+        // Site-map coverage gaps are found on demand from the tab
+        coverageGapJob = new CoverageGapJob(api, store);
+        scannedUrlsPanel.setFindUnscannedActions(this::startCoverageGapJob, () -> coverageGapCancelled = true);
+        api.extension().registerUnloadingHandler(() -> coverageGapCancelled = true);
 
         api.userInterface().registerContextMenuItemsProvider(new AnnotatorContextMenu());
         api.userInterface().registerHttpRequestEditorProvider(new AnnotatorEditorProvider());
+        api.extension().registerUnloadingHandler(editorLookups::shutdownNow);
+        api.extension().registerUnloadingHandler(keyModeChanges::shutdown);
         
-        // Register audit issue handler
-        //api.scanner().registerAuditIssueHandler(new AnnotatorAuditIssueHandler());
+        // Tag URLs with the tools (Repeater, Intruder, extensions) that have sent requests to them
+        toolTraffic = new ToolTrafficRecorder(api, store, metrics);
+        toolTraffic.start();
+        api.http().registerHttpHandler(new ToolTrafficHandler());
+        api.extension().registerUnloadingHandler(toolTraffic::stop);
+
+        // Keep the scanned index up to date as new issues arrive
+        api.scanner().registerAuditIssueHandler(new AnnotatorAuditIssueHandler());
         
         // Register our custom scan check
-        api.scanner().registerScanCheck(new AnnotatorScanCheck(api, annotations, scannedUrlsPanel));
+        scanCheck = new AnnotatorScanCheck(api, store, metrics);
+        String savedRules = api.persistence().preferences().getString(PASSIVE_RULES_PREFERENCE);
+        String rulesError = applyPassiveRules(savedRules != null ? savedRules : PassiveRule.DEFAULT_RULES);
+        if (rulesError != null) {
+            api.logging().logToError("Passive rules not loaded: " + rulesError);
+        }
+        scannedUrlsPanel.setPassiveRulesActions(this::passiveRulesText, this::savePassiveRules);
+        String savedIssueMode = api.persistence().preferences().getString(ISSUE_MODE_PREFERENCE);
+        if (savedIssueMode != null) {
+            try {
+                scanCheck.setIssueMode(IssueMode.valueOf(savedIssueMode));
+            } catch (IllegalArgumentException e) {
+                api.logging().logToError("Unknown issue mode: " + savedIssueMode);
+            }
+        }
+        scannedUrlsPanel.setIssueModeActions(scanCheck.issueMode(), this::changeIssueMode);
+        api.scanner().registerScanCheck(scanCheck);
+        api.extension().registerUnloadingHandler(() -> api.logging().logToOutput(
+            "Scan check: " + scanCheck.auditCalls() + " audit calls, "
+                + scanCheck.shortCircuitCalls() + " short-circuited"));
+    }
+
+    // Annotations are saved per project under ~/.annotator, with a journal for each key mode
+    // since keys from one mode mean nothing in the other
+    private void openJournal() {
+        journal = new AnnotationJournal(projectDir(), api.logging()::logToError);
+        store.setChangeListener(this::storeChanged);
+    }
+
+    private Path projectDir() {
+        String project = api.project().id().replaceAll("[^A-Za-z0-9._-]", "_");
+        return Path.of(System.getProperty("user.home"), ".annotator", project,
+            store.keyMode().name().toLowerCase());
+    }
+
+    private void storeChanged(UrlKey key, int oldTags, int newTags, long timeSeconds) {
+        journal.changed(key, oldTags, newTags, timeSeconds);
+        AnnotationSync current = sync;
+        if (current != null) {
+            current.changed(key, oldTags, newTags, timeSeconds);
+        }
+    }
+
+    // Started again once the saved annotations are loaded, so it sees all of them.
+    // Each key mode syncs through its own subdirectory, like the journal.
+    private synchronized String startSync(Path dir) {
+        stopSync();
+        try {
+            SyncTransport transport = new DirectorySyncTransport(dir.resolve(store.keyMode().name().toLowerCase()));
+            AnnotationSync started = new AnnotationSync(store, transport, projectDir().resolve("sync-state.bin"),
+                api.logging()::logToError, metrics);
+            started.start();
+            sync = started;
+        } catch (IOException e) {
+            return "Couldn't start syncing through " + dir + ": " + e.getMessage();
+        }
+        api.persistence().extensionData().setString(SYNC_DIR_KEY, dir.toString());
+        api.logging().logToOutput("Syncing annotations through " + sync.describe());
+        return null;
+    }
+
+    private synchronized void stopSync() {
+        if (sync != null) {
+            sync.stop();
+            sync = null;
+        }
+    }
+
+    private void turnOffSync() {
+        stopSync();
+        api.persistence().extensionData().deleteString(SYNC_DIR_KEY);
+    }
+
+    private void startSavedSync() {
+        String saved = api.persistence().extensionData().getString(SYNC_DIR_KEY);
+        if (saved != null) {
+            String error = startSync(Path.of(saved));
+            if (error != null) {
+                api.logging().logToError(error);
+            }
+        }
+    }
+
+    // Null when not syncing
+    private String syncStatus() {
+        AnnotationSync current = sync;
+        return current == null ? null : current.describe();
+    }
+
+    private synchronized void startHydration() {
+        stopHydration();
+        AnnotationJournal current = journal;
+        hydration = new Thread(() -> {
+            long start = System.nanoTime();
+            loadJournal(current);
+            hydrateFromIssues();
+            if (!Thread.currentThread().isInterrupted()) {
+                hydrationTimer.record(start);
+                startSavedSync();
+            }
+        }, "Annotator hydration");
+        hydration.setDaemon(true);
+        hydration.start();
+    }
+
+    // Returns the thread that was stopped, if any, so callers can wait for it
+    private synchronized Thread stopHydration() {
+        if (hydration != null) {
+            hydration.interrupt();
+        }
+        return hydration;
+    }
+
+    // Existing keys were built in the old mode, so start over from the new mode's saved
+    // annotations and the site-map issues. Closing the journal can take a while, so the
+    // switch happens off the EDT.
+    private void changeKeyMode(KeyMode mode) {
+        api.persistence().preferences().setString(KEY_MODE_PREFERENCE, mode.name());
+        keyModeChanges.execute(() -> switchKeyMode(mode));
+    }
+
+    // The old hydration only checks for interrupts between chunks and before starting sync, so
+    // wait for it to finish, or it could add old-mode keys to the new store or start syncing
+    // the old mode's directory after we've cleared up
+    private void switchKeyMode(KeyMode mode) {
+        Thread old = stopHydration();
+        if (old != null) {
+            try {
+                old.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        stopSync();
+        journal.close();
+        store.setKeyMode(mode);
+        store.clear();
+        openJournal();
+        startHydration();
+    }
+
+    // Only what gets reported from now on changes, so this is safe mid-scan
+    private void changeIssueMode(IssueMode mode) {
+        api.persistence().preferences().setString(ISSUE_MODE_PREFERENCE, mode.name());
+        scanCheck.setIssueMode(mode);
+    }
+
+    private String passiveRulesText() {
+        String saved = api.persistence().preferences().getString(PASSIVE_RULES_PREFERENCE);
+        return saved != null ? saved : PassiveRule.DEFAULT_RULES;
+    }
+
+    // Returns an error message, or null once the rules are in use and saved
+    private String savePassiveRules(String text) {
+        String error = applyPassiveRules(text);
+        if (error == null) {
+            api.persistence().preferences().setString(PASSIVE_RULES_PREFERENCE, text);
+        }
+        return error;
+    }
+
+    private String applyPassiveRules(String text) {
+        try {
+            scanCheck.setPassiveRules(PassiveRuleEngine.compile(PassiveRule.parse(text), store.tagRegistry()));
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private synchronized void startCoverageGapJob() {
+        if (coverageGapThread != null && coverageGapThread.isAlive()) {
+            return;
+        }
+        coverageGapCancelled = false;
+        scannedUrlsPanel.setFindUnscannedRunning(true);
+        coverageGapThread = new Thread(() -> {
+            try {
+                CoverageGapJob.Result result = coverageGapJob.run(
+                    (done, total) -> scannedUrlsPanel.showProgress("Checking site map " + done + " / " + total, done, total),
+                    () -> coverageGapCancelled);
+                api.logging().logToOutput("Coverage check" + (result.cancelled() ? " cancelled" : "") + ": "
+                    + result.checked() + " site-map items, " + result.newItems() + " new in scope, "
+                    + result.tagged() + " tagged " + CoverageGapJob.NEED_TO_SCAN_TAG);
+            } catch (RuntimeException e) {
+                api.logging().logToError("Coverage check failed: " + e.getMessage());
+            } finally {
+                scannedUrlsPanel.showProgress("", 1, 1);
+                scannedUrlsPanel.setFindUnscannedRunning(false);
+            }
+        }, "Annotator coverage check");
+        coverageGapThread.setDaemon(true);
+        coverageGapThread.start();
+    }
+
+    private void loadJournal(AnnotationJournal current) {
+        scannedUrlsPanel.setLoadingProgress(0, -1);
+        try {
+            int loaded = current.load(store);
+            api.logging().logToOutput("Loaded " + loaded + " saved annotations");
+        } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Key mode changed while loading, a new journal has taken over
+                return;
+            }
+            current.close();
+            api.logging().logToError("Couldn't load saved annotations, changes won't be saved: " + e.getMessage());
+        }
+    }
+
+    // Loads our scanned issues from the site map in chunks so initialize() returns straight away.
+    // The tab is usable with partial data while this runs; each chunk reaches the table as
+    // one batch on the panel's next flush.
+    private void hydrateFromIssues() {
+        scannedUrlsPanel.setLoadingProgress(0, -1);
+        List<AuditIssue> issues = api.siteMap().issues();
+        List<UrlKey> chunk = new ArrayList<>(HYDRATION_CHUNK_SIZE);
+        int processed = 0;
+        for (AuditIssue issue : issues) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            processed++;
+            if (issue.name().equals(SCANNED_ISSUE_NAME)) {
+                try {
+                    chunk.add(store.keyFor(issue));
+                    hydratedIssues.increment();
+                } catch (Exception e) {
+                    api.logging().logToError("Error processing existing issue: " + e.getMessage());
+                }
+            }
+            if (processed % HYDRATION_CHUNK_SIZE == 0) {
+                applyHydrationChunk(chunk);
+                scannedUrlsPanel.setLoadingProgress(processed, issues.size());
+            }
+        }
+        applyHydrationChunk(chunk);
+        scannedUrlsPanel.setLoadingProgress(issues.size(), issues.size());
+    }
+
+    private void applyHydrationChunk(List<UrlKey> chunk) {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        for (UrlKey normalized : chunk) {
+            store.addTag(normalized, AnnotationStore.SCANNED_TAG);
+        }
+        chunk.clear();
     }
 
     public boolean isBapp() {
@@ -96,15 +430,16 @@ public class AnnotatorExtension implements BurpExtension {
             JMenuItem sendToAnnotator = new JMenuItem("Send to Annotator");
 
             sendToAnnotator.addActionListener(e -> {
+                long start = System.nanoTime();
                 for (HttpRequestResponse message : event.selectedRequestResponses()) {
                     try {
-                        String url = message.request().url().toString();
-                        String normalized = normalizeUrl(new URL(url));
-                        scannedUrlsPanel.addScannedUrl(normalized);
+                        scannedUrlsPanel.addScannedUrl(store.keyFor(message.request()));
+                        sentToTable.increment();
                     } catch (Exception ex) {
                         // Silently handle any errors
                     }
                 }
+                contextMenuTimer.record(start);
             });
 
             return Collections.singletonList(sendToAnnotator);
@@ -118,22 +453,46 @@ public class AnnotatorExtension implements BurpExtension {
         }
     }
 
+    // Burp creates one of these per message editor and calls setRequestResponse on every
+    // selection change, so nothing is looked up until the tab is actually showing, and quick
+    // successive changes (an arrow key held down in Proxy history) only look up where they
+    // stop. The lookup runs off the EDT; each change bumps the generation, and a result for
+    // an older generation is dropped.
     private class AnnotatorEditor implements ExtensionProvidedHttpRequestEditor {
-        private final JTextArea textArea;
         private final JPanel panel;
+        private final Timer debounce;
+        private JTextArea textArea;
         private HttpRequestResponse message;
+        // Bumped on the EDT, read by lookups to see if they're still wanted
+        private volatile int generation;
+        private boolean stale;
+        private Future<?> lookup;
 
         public AnnotatorEditor() {
-            this.textArea = new JTextArea();
-            this.textArea.setEditable(false);
             this.panel = new JPanel(new BorderLayout());
-            panel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+            this.debounce = new Timer(EDITOR_DEBOUNCE_MS, e -> startLookup());
+            this.debounce.setRepeats(false);
+            panel.addHierarchyListener(e -> {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && panel.isShowing() && stale) {
+                    debounce.restart();
+                }
+            });
         }
 
         @Override
         public void setRequestResponse(HttpRequestResponse requestResponse) {
             this.message = requestResponse;
-            updateAnnotation();
+            generation++;
+            stale = true;
+            if (lookup != null && !lookup.isDone()) {
+                lookup.cancel(false);
+                editorSuperseded.increment();
+            }
+            if (panel.isShowing()) {
+                debounce.restart();
+            } else {
+                debounce.stop();
+            }
         }
 
         @Override
@@ -141,47 +500,91 @@ public class AnnotatorExtension implements BurpExtension {
             return message != null ? message.request() : null;
         }
 
-        private void updateAnnotation() {
-            if (message == null) {
-                textArea.setText("No request/response available");
+        private void startLookup() {
+            if (!stale || !panel.isShowing()) {
                 return;
             }
-
+            stale = false;
+            int wanted = generation;
+            HttpRequestResponse current = message;
             try {
-                String url = message.request().url().toString();
-                String normalized = normalizeUrl(new URL(url));
-
-                String annotation = annotations.get(normalized);
-                if (annotation != null) {
-                    textArea.setText("Annotation: " + annotation);
-                    return;
-                }
-
-                // Check for our custom audit issue
-                boolean found = api.siteMap().issues().stream()
-                    .anyMatch(issue -> {
-                        try {
-                            if (issue.name().equals(SCANNED_ISSUE_NAME) && normalizeUrl(new URL(issue.baseUrl())).equals(normalized)) {
-                                //api.logging().logToOutput("Found issue: " + issue.name());
-                                return true;
-                            } else {
-                                //api.logging().logToOutput("Did not find the issue on url: " + normalized + "Compared to: " + normalizeUrl(new URL(issue.baseUrl())));
-                                return false;
-                            }
-                            //return issue.name().equals(SCANNED_ISSUE_NAME) && 
-                              //  normalizeUrl(new URL(issue.baseUrl())).equals(normalized);
-                        } catch (Exception e) {
-                            api.logging().logToError("Error checking issue URL: " + e.getMessage());
-                            return false;
+                lookup = editorLookups.submit(() -> {
+                    if (wanted != generation) {
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    String text = annotationFor(current);
+                    editorTimer.record(start);
+                    SwingUtilities.invokeLater(() -> {
+                        if (wanted == generation) {
+                            showText(text);
                         }
                     });
-                //api.logging().logToOutput("Found issue: " + found);
+                });
+            } catch (RejectedExecutionException e) {
+                // Unloading
+            }
+        }
+
+        private void showText(String text) {
+            if (textArea == null) {
+                textArea = new JTextArea();
+                textArea.setEditable(false);
+                panel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+                panel.revalidate();
+            }
+            textArea.setText(text);
+        }
+
+        private String annotationFor(HttpRequestResponse message) {
+            if (message == null) {
+                return "No request/response available";
+            }
+
+            try {
+                UrlKey normalized = store.keyFor(message.request());
 
-                textArea.setText("Annotation: " + (found ? "Scanned (active scan)" : "Not Scanned"));
+                // Our scanned issues are indexed at startup and by the issue handler
+                int tags = store.tags(normalized);
+                boolean found = (tags & AnnotationStore.SCANNED_BIT) != 0;
+
+                StringBuilder text = new StringBuilder("Annotation: ");
+                text.append(found ? "Scanned (active scan)" : "Not Scanned");
+                List<String> otherTags = store.tagRegistry().names(tags & ~AnnotationStore.SCANNED_BIT);
+                if (!otherTags.isEmpty()) {
+                    text.append("\nTags: ").append(String.join(", ", otherTags));
+                }
+                appendHistory(text, normalized);
+                return text.toString();
 
             } catch (Exception e) {
-                textArea.setText("Annotation: Error processing URL");
                 api.logging().logToError("Annotation error: " + e.getMessage());
+                return "Annotation: Error processing URL";
+            }
+        }
+
+        private void appendHistory(StringBuilder text, UrlKey key) {
+            ScanHistory history = store.history();
+            List<ScanHistory.Event> events = history.events(key.hash());
+            if (events.isEmpty()) {
+                return;
+            }
+            int scans = history.scanCount(key.hash());
+            text.append("\n\nActively scanned ").append(scans).append(scans == 1 ? " time" : " times")
+                .append(" this session");
+            if (history.isStale(key.hash())) {
+                text.append("; the response has changed since the last scan");
+            }
+            text.append("\nRecent events:");
+            for (ScanHistory.Event event : events) {
+                text.append("\n  ").append(HISTORY_TIME_FORMAT.format(Instant.ofEpochMilli(event.timeMillis())))
+                    .append("  ").append(event.kind().name().toLowerCase(Locale.ROOT));
+                if (event.tool() != null) {
+                    text.append(" by ").append(event.tool().toolName());
+                }
+                if (event.responseHash() != 0) {
+                    text.append(String.format("  response %08x", event.responseHash()));
+                }
             }
         }
 
@@ -211,43 +614,33 @@ public class AnnotatorExtension implements BurpExtension {
         }
     }
 
-    private static String normalizeUrl(URL url) {
-        try {
-            int port = url.getPort();
-            boolean isDefaultPort = (url.getProtocol().equals("http") && port == 80)
-                    || (url.getProtocol().equals("https") && port == 443)
-                    || (port == -1);
-
-            if (isDefaultPort) {
-                return url.getProtocol() + "://" + url.getHost() + url.getPath();
-            } else {
-                return url.getProtocol() + "://" + url.getHost() + ":" + port + url.getPath();
-            }
-        } catch (Exception e) {
-            return url.toString(); // fallback
-        }
-    }
-/*
     private class AnnotatorAuditIssueHandler implements AuditIssueHandler {
         @Override
         public void handleNewAuditIssue(AuditIssue issue) {
+            if (!issue.name().equals(SCANNED_ISSUE_NAME)) {
+                return;
+            }
             try {
-                String url = issue.baseUrl();
-                String normalized = normalizeUrl(new URL(url));
-                
-                // Add to our annotations
-                annotations.put(normalized, "Scanned (active scan)");
-                
-                // Update the scanned URLs panel
-                scannedUrlsPanel.addScannedUrl(normalized);
-                
-                // Log that we found an issue
-                api.logging().logToOutput("Found audit issue for URL: " + normalized);
-                
+                // The panel picks the change up on its next flush
+                store.addTag(store.keyFor(issue), AnnotationStore.SCANNED_TAG);
             } catch (Exception e) {
                 api.logging().logToError("Failed to handle audit issue: " + e.getMessage());
             }
         }
     }
-*/
-}
\ No newline at end of file
+
+    // Only hands the request to the recorder's queue; everything else happens on its thread
+    private class ToolTrafficHandler implements HttpHandler {
+        @Override
+        public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent request) {
+            ToolType tool = request.toolSource().toolType();
+            toolTraffic.offer(request, tool);
+            return RequestToBeSentAction.continueWith(request);
+        }
+
+        @Override
+        public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived response) {
+            return ResponseReceivedAction.continueWith(response);
+        }
+    }
+}
@@ -9,68 +9,256 @@ import burp.api.montoya.scanner.audit.issues.AuditIssueConfidence;
 import burp.api.montoya.scanner.audit.issues.AuditIssueSeverity;
 import burp.api.montoya.scanner.ConsolidationAction;
 import burp.api.montoya.scanner.audit.insertionpoint.AuditInsertionPoint;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.requests.HttpRequest;
 
-import java.util.Map;
+import java.awt.Color;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AnnotatorScanCheck implements ScanCheck {
     private final MontoyaApi api;
-    private final Map<String, String> annotations;
-    private final ScannedUrlsPanel scannedUrlsPanel;
+    private final AnnotationStore store;
     private static final String SCANNED_ISSUE_NAME = "[Annotator] Active Scanned";
     private static final String SCANNED_ISSUE_DETAIL = "This URL has been actively scanned.";
     private static final String SCANNED_ISSUE_REMEDIATION = "This URL has been actively scanned.";
-    public AnnotatorScanCheck(MontoyaApi api, Map<String, String> annotations, ScannedUrlsPanel scannedUrlsPanel) {
+    // Not the per-URL name, so loading issues back doesn't mistake the host root for a scanned URL
+    private static final String HOST_ISSUE_NAME = "[Annotator] Active Scanned Host";
+    private static final String HOST_ISSUE_DETAIL = "URLs on this host have been actively scanned. "
+        + "The Scanned URLs tab lists which ones.";
+
+    // Burp calls activeAudit once per insertion point with the same base request, so remember
+    // the base requests we've already handled. Direct-mapped, so an evicted fingerprint just
+    // goes through the normal path again.
+    private static final int HANDLED_CACHE_SIZE = 4096;
+    private static final Color STALE_TAG_COLOR = new Color(255, 152, 0); // Orange
+    private final AtomicLongArray handled = new AtomicLongArray(HANDLED_CACHE_SIZE);
+    private volatile HttpRequestResponse lastBaseRequestResponse;
+    private final AuditResult emptyResult;
+
+    private final LongAdder auditCalls;
+    private final LongAdder shortCircuitCalls;
+    // Only calls past the same-object check are timed; timing costs more than that check
+    private final Metrics.Timer auditTimer;
+    private final Metrics.Timer passiveTimer;
+    private final LongAdder passiveTags;
+    private final LongAdder staleMarked;
+    private volatile PassiveRuleEngine passiveRules = PassiveRuleEngine.EMPTY;
+    private volatile IssueMode issueMode = IssueMode.PER_URL;
+    // Host roots we've reported this session; Burp consolidates any repeats from earlier ones
+    private final Set<String> reportedHosts = ConcurrentHashMap.newKeySet();
+
+    public AnnotatorScanCheck(MontoyaApi api, AnnotationStore store) {
+        this(api, store, new Metrics());
+    }
+
+    public AnnotatorScanCheck(MontoyaApi api, AnnotationStore store, Metrics metrics) {
         this.api = api;
-        this.annotations = annotations;
-        this.scannedUrlsPanel = scannedUrlsPanel;
+        this.store = store;
+        this.auditCalls = metrics.counter("audit calls");
+        this.shortCircuitCalls = metrics.counter("audit skipped");
+        this.auditTimer = metrics.timer("activeAudit");
+        this.passiveTimer = metrics.timer("passiveAudit");
+        this.passiveTags = metrics.counter("passive tags");
+        this.staleMarked = metrics.counter("marked stale");
+        this.emptyResult = AuditResult.auditResult();
+    }
+
+    public void setPassiveRules(PassiveRuleEngine passiveRules) {
+        this.passiveRules = passiveRules;
+    }
+
+    // Takes effect for the next URL scanned; issues already reported stay in Burp
+    public void setIssueMode(IssueMode issueMode) {
+        this.issueMode = issueMode;
+    }
+
+    public IssueMode issueMode() {
+        return issueMode;
+    }
+
+    public long auditCalls() {
+        return auditCalls.sum();
+    }
+
+    public long shortCircuitCalls() {
+        return shortCircuitCalls.sum();
     }
 
     @Override
     public AuditResult activeAudit(HttpRequestResponse baseRequestResponse, AuditInsertionPoint insertionPoint) {
+        auditCalls.increment();
+
+        // Same base object as the last call, nothing to look at
+        if (baseRequestResponse == lastBaseRequestResponse) {
+            shortCircuitCalls.increment();
+            return emptyResult;
+        }
+
+        long start = System.nanoTime();
         try {
-            String url = baseRequestResponse.request().url().toString();
-            
-            // Check if URL exists in the panel
-            if (scannedUrlsPanel.hasUrl(url)) {
-                // If URL exists but doesn't have Scanned tag, add it
-                if (!scannedUrlsPanel.hasScannedTag(url)) {
-                    scannedUrlsPanel.addScannedUrl(url, "Scanned");
-                }
-                // If URL exists and has Scanned tag, just return without creating a new issue
-                return AuditResult.auditResult();
+            long fingerprint = fingerprint(baseRequestResponse.request());
+            int slot = handledSlot(fingerprint);
+            if (handled.get(slot) == fingerprint) {
+                lastBaseRequestResponse = baseRequestResponse;
+                shortCircuitCalls.increment();
+                return emptyResult;
             }
-            
-            // Create an informational issue for the scanned URL
-            AuditIssue issue = new AnnotatorAuditIssue(
-                SCANNED_ISSUE_NAME,
-                SCANNED_ISSUE_DETAIL,
-                SCANNED_ISSUE_REMEDIATION,
-                baseRequestResponse,
-                AuditIssueSeverity.INFORMATION,
-                AuditIssueConfidence.CERTAIN
-            );
-
-            // Add to our annotations
-            annotations.put(url, "Scanned (active scan)");
-            
-            // Update the scanned URLs panel
-            scannedUrlsPanel.addScannedUrl(url, "Scanned");
-            
-            return AuditResult.auditResult(issue);
+
+            AuditResult result = audit(baseRequestResponse);
+            handled.set(slot, fingerprint);
+            lastBaseRequestResponse = baseRequestResponse;
+            return result;
         } catch (Exception e) {
-            return AuditResult.auditResult();
+            return emptyResult;
+        } finally {
+            auditTimer.record(start);
         }
     }
 
+    // The audit result only depends on the request's key, so the fingerprint is the key's 64-bit
+    // hash, computed without building the key
+    private long fingerprint(HttpRequest request) {
+        long h = UrlKey.hashOf(request, store.keyMode());
+        // 0 marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    private static int handledSlot(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & (HANDLED_CACHE_SIZE - 1);
+    }
+
+    private AuditResult audit(HttpRequestResponse baseRequestResponse) {
+        UrlKey url = store.keyFor(baseRequestResponse.request());
+        int responseHash = ScanHistory.responseHash(baseRequestResponse.response());
+        store.history().recordScan(url.hash(), responseHash, System.currentTimeMillis() / 1000);
+        // Whatever the history says: a Stale tag that came in through sync or an import, or
+        // outlived a restart, is cleared by the scan too
+        store.removeTag(url, ScanHistory.STALE_TAG);
+        
+        // Runs on scanner threads, so only the store is touched here; the panel picks
+        // the change up on its next flush
+        boolean isNew = store.add(url);
+        store.addTag(url, AnnotationStore.SCANNED_TAG);
+        // Scanned now, so it's no longer a coverage gap
+        store.removeTag(url, CoverageGapJob.NEED_TO_SCAN_TAG);
+        switch (issueMode) {
+            case NONE:
+                return emptyResult;
+            case PER_HOST:
+                return hostIssue(baseRequestResponse.httpService());
+            default:
+                break;
+        }
+        if (!isNew) {
+            // URL was already known, just make sure it is tagged without creating a new issue
+            return emptyResult;
+        }
+        
+        // Create an informational issue for the scanned URL
+        AuditIssue issue = new AnnotatorAuditIssue(
+            SCANNED_ISSUE_NAME,
+            SCANNED_ISSUE_DETAIL,
+            SCANNED_ISSUE_REMEDIATION,
+            baseRequestResponse,
+            AuditIssueSeverity.INFORMATION,
+            AuditIssueConfidence.CERTAIN
+        );
+
+        return AuditResult.auditResult(issue);
+    }
+
+    private AuditResult hostIssue(HttpService service) {
+        String hostRoot = UrlKey.of(service.secure(), service.host(), service.port(), "/").url();
+        if (!reportedHosts.add(hostRoot)) {
+            return emptyResult;
+        }
+        return AuditResult.auditResult(new AnnotatorAuditIssue(
+            HOST_ISSUE_NAME,
+            HOST_ISSUE_DETAIL,
+            HOST_ISSUE_DETAIL,
+            service,
+            hostRoot,
+            AuditIssueSeverity.INFORMATION,
+            AuditIssueConfidence.CERTAIN
+        ));
+    }
+
     @Override
     public AuditResult passiveAudit(HttpRequestResponse baseRequestResponse) {
-        return AuditResult.auditResult();
+        long start = System.nanoTime();
+        try {
+            HttpRequest request = baseRequestResponse.request();
+            UrlKey key = store.keyFor(request);
+            trackResponse(key, baseRequestResponse);
+            PassiveRuleEngine rules = passiveRules;
+            if (rules.isEmpty()) {
+                return emptyResult;
+            }
+            // Only rules that could still add a tag are worth a look, and scanned URLs
+            // don't need scanning
+            int tags = store.tags(key);
+            int wanted = rules.tagMask() & ~tags;
+            if ((tags & AnnotationStore.SCANNED_BIT) != 0) {
+                wanted &= ~store.tagBit(CoverageGapJob.NEED_TO_SCAN_TAG);
+            }
+            if (wanted == 0) {
+                return emptyResult;
+            }
+            int found = rules.match(request, baseRequestResponse.response(), wanted);
+            while (found != 0) {
+                TagRegistry.Tag tag = store.tagRegistry().get(Integer.numberOfTrailingZeros(found));
+                if (tag != null && store.addTag(key, tag.name())) {
+                    passiveTags.increment();
+                    store.history().recordTag(key.hash(), null, System.currentTimeMillis() / 1000);
+                }
+                found &= found - 1;
+            }
+        } catch (Exception e) {
+            // Passive checks see all sorts of traffic; a message we can't read just isn't tagged
+        } finally {
+            passiveTimer.record(start);
+        }
+        return emptyResult;
+    }
+
+    // Scanned URLs whose response has changed since get tagged Stale. Hashing the response is
+    // only worth it for keys the history already has.
+    private void trackResponse(UrlKey key, HttpRequestResponse requestResponse) {
+        ScanHistory history = store.history();
+        if (!history.contains(key.hash())) {
+            return;
+        }
+        int responseHash = ScanHistory.responseHash(requestResponse.response());
+        if (!history.recordResponse(key.hash(), responseHash, System.currentTimeMillis() / 1000)) {
+            return;
+        }
+        try {
+            store.tagRegistry().add(ScanHistory.STALE_TAG, STALE_TAG_COLOR);
+        } catch (IllegalStateException e) {
+            // No tag slot left; the history still knows
+        }
+        store.addTag(key, ScanHistory.STALE_TAG);
+        staleMarked.increment();
+        // The next scan of this URL has to get through to audit() to clear it, and its base
+        // request may still be in the handled cache. The fingerprint is the key hash, so only
+        // this key's slot needs emptying.
+        long fingerprint = key.hash() == 0 ? 1 : key.hash();
+        handled.compareAndSet(handledSlot(fingerprint), fingerprint, 0);
+        lastBaseRequestResponse = null;
     }
 
     @Override
-    public ConsolidationAction consolidateIssues(AuditIssue issue1, AuditIssue issue2) {
-        return ConsolidationAction.KEEP_EXISTING;
+    public ConsolidationAction consolidateIssues(AuditIssue existingIssue, AuditIssue newIssue) {
+        // Ours say the same thing whenever name and URL match, so one is enough. Host issues
+        // all sit on the host root, which keeps it to one per host across sessions too.
+        if (existingIssue.name().equals(newIssue.name()) && existingIssue.baseUrl().equals(newIssue.baseUrl())) {
+            return ConsolidationAction.KEEP_EXISTING;
+        }
+        return ConsolidationAction.KEEP_BOTH;
     }
 } 
\ No newline at end of file
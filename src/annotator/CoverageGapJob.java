@@ -0,0 +1,82 @@
+package annotator;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+// Finds in-scope site-map endpoints that have never been actively scanned and tags them
+// "Need to Scan". Runs are incremental: the key hashes handled by an earlier run are remembered
+// exactly, in a LongTagMap with no values (about 27 bytes a key), so each run only looks closely
+// at what was added to the site map since and the job never keeps the site map itself. Items
+// are matched by UrlKey.hashOf, so ones already handled are skipped without building a key.
+// Out-of-scope items aren't remembered, so they are picked up if the scope later grows to
+// include them.
+public class CoverageGapJob {
+    public static final String NEED_TO_SCAN_TAG = "Need to Scan";
+    private static final int PROGRESS_EVERY = 1000;
+
+    private final MontoyaApi api;
+    private final AnnotationStore store;
+    private final LongTagMap seen = new LongTagMap();
+    private int seenGeneration;
+
+    public interface ProgressListener {
+        void progress(int done, int total);
+    }
+
+    public record Result(int checked, int newItems, int tagged, boolean cancelled) { }
+
+    public CoverageGapJob(MontoyaApi api, AnnotationStore store) {
+        this.api = api;
+        this.store = store;
+        this.seenGeneration = store.generation();
+    }
+
+    // One run at a time; runs on the caller's thread
+    public synchronized Result run(ProgressListener progress, BooleanSupplier cancelled) {
+        // A cleared store means new keys, probably in a different key mode
+        if (seenGeneration != store.generation()) {
+            seenGeneration = store.generation();
+            seen.clear();
+        }
+        List<HttpRequestResponse> items = api.siteMap().requestResponses();
+        int total = items.size();
+        int checked = 0;
+        int newItems = 0;
+        int tagged = 0;
+        KeyMode mode = store.keyMode();
+        for (HttpRequestResponse item : items) {
+            if (cancelled.getAsBoolean()) {
+                return new Result(checked, newItems, tagged, true);
+            }
+            checked++;
+            if (checked % PROGRESS_EVERY == 0) {
+                progress.progress(checked, total);
+            }
+            HttpRequest request = item.request();
+            if (request == null) {
+                continue;
+            }
+            long hash;
+            try {
+                hash = UrlKey.hashOf(request, mode);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (seen.contains(hash) || !api.scope().isInScope(request.url())) {
+                continue;
+            }
+            seen.update(hash, 0, 0, 0, LongTagMap.KEEP_TIME);
+            newItems++;
+            UrlKey key = UrlKey.of(request, mode);
+            if (!store.isScanned(key) && store.addTag(key, NEED_TO_SCAN_TAG)) {
+                tagged++;
+            }
+        }
+        progress.progress(total, total);
+        return new Result(checked, newItems, tagged, false);
+    }
+}
@@ -0,0 +1,285 @@
+package annotator;
+
+import javax.swing.JTree;
+import javax.swing.ToolTipManager;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Host / path coverage tree for the JTree beside the table. Every URL hangs off the node for its
+// last path segment, and each node keeps running counts for its whole subtree: URLs, and URLs
+// carrying each tag. Adding a URL or changing its tags walks from its node up to the root, so
+// updates cost the path depth and reading a subtree's coverage is just reading its counters.
+// Only touched on the EDT.
+public class CoverageTree implements TreeModel {
+    private final TagRegistry tagRegistry;
+    private final List<TreeModelListener> listeners = new ArrayList<>();
+    // Nodes added, and nodes whose counters changed, since the last fireChanges. The tree hears
+    // about them in one go per batch instead of once per URL.
+    private final Set<Node> inserted = new LinkedHashSet<>();
+    private final Set<Node> dirty = new LinkedHashSet<>();
+    private Node root = new Node(null, "All hosts");
+
+    public CoverageTree(TagRegistry tagRegistry) {
+        this.tagRegistry = tagRegistry;
+    }
+
+    public class Node {
+        private final Node parent;
+        private final String name;
+        private final List<Node> children = new ArrayList<>();
+        private Map<String, Node> childrenByName;
+        private int total;
+        // URLs in the subtree carrying each tag, indexed by tag id; grown on demand
+        private int[] tagCounts = new int[1];
+
+        private Node(Node parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        public int total() {
+            return total;
+        }
+
+        public int count(int tagId) {
+            return tagId < tagCounts.length ? tagCounts[tagId] : 0;
+        }
+
+        public int scanned() {
+            return count(TagRegistry.SCANNED_ID);
+        }
+
+        // Tags present in the subtree with their counts, e.g. "XSS 3, SQLi 1"
+        public String tagSummary() {
+            StringBuilder sb = new StringBuilder();
+            for (int id = 0; id < tagCounts.length; id++) {
+                TagRegistry.Tag tag = tagRegistry.get(id);
+                if (tagCounts[id] > 0 && tag != null) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(tag.name()).append(' ').append(tagCounts[id]);
+                }
+            }
+            return sb.toString();
+        }
+
+        private Node child(String childName, List<Node> created) {
+            if (childrenByName == null) {
+                childrenByName = new HashMap<>();
+            }
+            Node child = childrenByName.get(childName);
+            if (child == null) {
+                child = new Node(this, childName);
+                childrenByName.put(childName, child);
+                // Keep children sorted so the tree reads like the site map
+                children.add(-indexOf(child) - 1, child);
+                created.add(child);
+            }
+            return child;
+        }
+
+        private int indexOf(Node child) {
+            return Collections.binarySearch(children, child, (a, b) -> a.name.compareTo(b.name));
+        }
+
+        private TreePath path() {
+            List<Object> nodes = new ArrayList<>();
+            for (Node node = this; node != null; node = node.parent) {
+                nodes.add(node);
+            }
+            Collections.reverse(nodes);
+            return new TreePath(nodes.toArray());
+        }
+
+        @Override
+        public String toString() {
+            int percent = total == 0 ? 0 : (int) (100L * scanned() / total);
+            return name + "  (" + scanned() + " / " + total + ", " + percent + "% scanned)";
+        }
+    }
+
+    // Adds a URL with its current tags and returns its node, to pass to updateTags later
+    public Node add(String url, int tags) {
+        List<Node> created = new ArrayList<>();
+        Node node = root;
+        int hostStart = url.indexOf("://") + 3;
+        int pathStart = url.indexOf('/', hostStart);
+        if (pathStart < 0) {
+            pathStart = url.length();
+        }
+        node = node.child(url.substring(0, pathStart), created);
+        int start = pathStart + 1;
+        while (start < url.length()) {
+            int end = url.indexOf('/', start);
+            // Directories keep their slash so /api/ and a file called api stay apart
+            String segment = end < 0 ? url.substring(start) : url.substring(start, end + 1);
+            if (!segment.isEmpty() && !segment.equals("/")) {
+                node = node.child(segment, created);
+            }
+            start = end < 0 ? url.length() : end + 1;
+        }
+        for (Node n = node; n != null; n = n.parent) {
+            n.total++;
+            dirty.add(n);
+        }
+        updateTags(node, 0, tags);
+        inserted.addAll(created);
+        return node;
+    }
+
+    public void updateTags(Node node, int oldTags, int newTags) {
+        int changed = oldTags ^ newTags;
+        while (changed != 0) {
+            int id = Integer.numberOfTrailingZeros(changed);
+            int delta = (newTags & (1 << id)) != 0 ? 1 : -1;
+            for (Node n = node; n != null; n = n.parent) {
+                if (id >= n.tagCounts.length) {
+                    int[] grown = new int[id + 1];
+                    System.arraycopy(n.tagCounts, 0, grown, 0, n.tagCounts.length);
+                    n.tagCounts = grown;
+                }
+                n.tagCounts[id] += delta;
+                dirty.add(n);
+            }
+            changed &= changed - 1;
+        }
+    }
+
+    // Tells the tree about the nodes added and the labels changed since the last call, one event
+    // per parent; call once per batch of updates
+    public void fireChanges() {
+        if (listeners.isEmpty()) {
+            inserted.clear();
+            dirty.clear();
+            return;
+        }
+        // Parents are always created before their children, so insertion order is safe to replay
+        for (Map.Entry<Node, List<Node>> entry : groupByParent(inserted).entrySet()) {
+            fire(entry.getKey(), entry.getValue(), true);
+        }
+        dirty.removeAll(inserted);
+        inserted.clear();
+        if (dirty.remove(root)) {
+            fire(new TreeModelEvent(this, new Object[]{root}), false);
+        }
+        for (Map.Entry<Node, List<Node>> entry : groupByParent(dirty).entrySet()) {
+            fire(entry.getKey(), entry.getValue(), false);
+        }
+        dirty.clear();
+    }
+
+    private static Map<Node, List<Node>> groupByParent(Set<Node> nodes) {
+        Map<Node, List<Node>> byParent = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            byParent.computeIfAbsent(node.parent, k -> new ArrayList<>()).add(node);
+        }
+        return byParent;
+    }
+
+    public void clear() {
+        inserted.clear();
+        dirty.clear();
+        root = new Node(null, root.name);
+        TreeModelEvent event = new TreeModelEvent(this, new Object[]{root});
+        for (TreeModelListener listener : listeners) {
+            listener.treeStructureChanged(event);
+        }
+    }
+
+    private void fire(Node parent, List<Node> children, boolean inserted) {
+        children.sort((a, b) -> a.name.compareTo(b.name));
+        int[] indices = new int[children.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = parent.indexOf(children.get(i));
+        }
+        fire(new TreeModelEvent(this, parent.path(), indices, children.toArray()), inserted);
+    }
+
+    private void fire(TreeModelEvent event, boolean inserted) {
+        for (TreeModelListener listener : listeners) {
+            if (inserted) {
+                listener.treeNodesInserted(event);
+            } else {
+                listener.treeNodesChanged(event);
+            }
+        }
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return ((Node) parent).children.get(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return ((Node) parent).children.size();
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return ((Node) node).children.isEmpty();
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // Not editable
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        return ((Node) parent).indexOf((Node) child);
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Tree showing this model, with each node's per-tag counts as its tooltip
+    public JTree createView() {
+        JTree tree = new JTree(this);
+        tree.setRootVisible(true);
+        tree.setShowsRootHandles(true);
+        tree.setCellRenderer(new Renderer());
+        ToolTipManager.sharedInstance().registerComponent(tree);
+        return tree;
+    }
+
+    // Coverage labels come from the node; the per-tag counts go in the tooltip
+    private static class Renderer extends DefaultTreeCellRenderer {
+        private static final long serialVersionUID = 1L;
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected, boolean expanded,
+                                                      boolean leaf, int row, boolean hasFocus) {
+            super.getTreeCellRendererComponent(tree, value, selected, expanded, leaf, row, hasFocus);
+            if (value instanceof Node node) {
+                String summary = node.tagSummary();
+                setToolTipText(summary.isEmpty() ? null : summary);
+            }
+            return this;
+        }
+    }
+}
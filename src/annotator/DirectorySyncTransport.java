@@ -0,0 +1,89 @@
+package annotator;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Sync through a directory everyone can reach, such as a network share or a synced folder:
+// dir/<replica>/<seq>.batch, one file per batch. Files are written under a temporary name and
+// moved into place, so readers never see half a batch.
+public class DirectorySyncTransport implements SyncTransport {
+    private static final String SUFFIX = ".batch";
+
+    private final Path dir;
+
+    public DirectorySyncTransport(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public void publish(String replica, long seq, byte[] data) throws IOException {
+        Path replicaDir = dir.resolve(replica);
+        Files.createDirectories(replicaDir);
+        Path tmp = replicaDir.resolve(fileName(seq) + ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, replicaDir.resolve(fileName(seq)), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public List<Batch> fetch(String self, Map<String, Long> after, int max) throws IOException {
+        List<Batch> batches = new ArrayList<>();
+        try (DirectoryStream<Path> replicas = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path replicaDir : replicas) {
+                String replica = replicaDir.getFileName().toString();
+                if (replica.equals(self)) {
+                    continue;
+                }
+                long seen = after.getOrDefault(replica, 0L);
+                // Names are zero-padded, so sorting them sorts by seq
+                List<String> names = new ArrayList<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(replicaDir, "*" + SUFFIX)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        if (seq(name) > seen) {
+                            names.add(name);
+                        }
+                    }
+                }
+                names.sort(null);
+                long expected = seen + 1;
+                for (String name : names) {
+                    if (batches.size() == max) {
+                        return batches;
+                    }
+                    // A gap is a batch still on its way, say copied in out of order by a synced folder
+                    if (seq(name) != expected++) {
+                        break;
+                    }
+                    batches.add(new Batch(replica, seq(name), Files.readAllBytes(replicaDir.resolve(name))));
+                }
+            }
+        }
+        return batches;
+    }
+
+    @Override
+    public String describe() {
+        return dir.toString();
+    }
+
+    private static String fileName(long seq) {
+        return String.format("%016d%s", seq, SUFFIX);
+    }
+
+    // -1 for names that aren't ours
+    private static long seq(String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package annotator;
+
+// What the scan check reports to Burp when it marks a URL scanned. Scan state always lives in
+// the store; issues are only there so it shows up in Burp's own views, and thousands of them
+// slow down the issue list and project saves.
+public enum IssueMode {
+    PER_URL("One per URL"),
+    PER_HOST("One per host"),
+    NONE("None");
+
+    private final String label;
+
+    IssueMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
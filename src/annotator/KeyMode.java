@@ -0,0 +1,19 @@
+package annotator;
+
+// How requests are identified in the store: by canonical URL, or by endpoint shape
+// (method + path + parameter names) so GET and POST variants of a URL get their own rows
+public enum KeyMode {
+    URL("URL"),
+    ENDPOINT("Endpoint (method + parameters)");
+
+    private final String label;
+
+    KeyMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,344 @@
+package annotator;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+// Open-addressing map from a 64-bit key to a 32-bit tag mask and a timestamp (seconds since the
+// epoch, read back unsigned), plus an optional text value attached when the key is inserted.
+// Entries live in parallel arrays, so there is no boxing and no object per entry: 20 bytes a slot,
+// about 27 bytes an entry at the usual load. Values are appended to a per-segment byte arena
+// (length-prefixed, encoded like DataOutput.writeUTF) and the slot keeps their offset, so they
+// cost their length plus a byte or two and only become Strings again when visited.
+//
+// The table is split into segments, each with its own StampedLock. Lookups are optimistic reads
+// and normally take no lock at all; writers only contend with writers hashing to the same segment.
+// Key 0 marks an empty slot, so a real 0 key is stored as 1.
+public class LongTagMap {
+    public static final long ABSENT = -1L;
+    // Pass as the time to leave an existing entry's timestamp alone
+    public static final long KEEP_TIME = -1L;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_TEXT_CAPACITY = 1024;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public LongTagMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Current mask, or ABSENT
+    public long get(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).get(key, h, false);
+    }
+
+    // Time of the last update in seconds since the epoch, or ABSENT
+    public long time(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).get(key, h, true);
+    }
+
+    public boolean contains(long key) {
+        return get(key) != ABSENT;
+    }
+
+    // Inserts the key if needed and sets the mask to ((old | set) & ~clear) ^ flip.
+    // Returns the old mask, or ABSENT if the key was inserted.
+    public long update(long key, int set, int clear, int flip, long nowSeconds) {
+        return update(key, set, clear, flip, nowSeconds, null);
+    }
+
+    // As above; value is attached if the key gets inserted and ignored otherwise
+    public long update(long key, int set, int clear, int flip, long nowSeconds, String value) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).update(key, h, set, clear, flip, nowSeconds, true, value);
+    }
+
+    // Like update, but leaves missing keys missing and returns ABSENT for them
+    public long updateIfPresent(long key, int set, int clear, int flip, long nowSeconds) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).update(key, h, set, clear, flip, nowSeconds, false, null);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    // Bytes held by the backing arrays, including the arenas' unused room
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.keys.length * (Long.BYTES + Integer.BYTES + Integer.BYTES + Integer.BYTES)
+                + segment.text.length;
+        }
+        return bytes;
+    }
+
+    // Visits every entry. Each segment is copied under its read lock and visited after the lock is
+    // released, so writers are only held up by the copy and visitors are free to write to the map.
+    // Extra memory is one segment's slots, about 1/64 of the map; the arena is append-only, so it
+    // is read in place rather than copied.
+    public void forEach(EntryVisitor visitor) {
+        for (Segment segment : segments) {
+            segment.forEach(visitor);
+        }
+    }
+
+    // value is null for keys inserted without one
+    public interface EntryVisitor {
+        void visit(long key, int mask, long timeSeconds, String value);
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int) (h >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long normalize(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    // Murmur3 finalizer, the keys are already hashes but this evens out the low bits
+    private static long spread(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    // Bytes appendText uses for the string: a varint length, then 1 to 3 bytes a char
+    private static int textLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 1 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static String readText(byte[] text, int at) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = text[at++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        char[] chars = new char[length];
+        int count = 0;
+        for (int end = at + length; at < end; ) {
+            int c = text[at++] & 0xff;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+            } else if (c < 0xe0) {
+                chars[count++] = (char) ((c & 0x1f) << 6 | (text[at++] & 0x3f));
+            } else {
+                chars[count++] = (char) ((c & 0x0f) << 12 | (text[at++] & 0x3f) << 6 | (text[at++] & 0x3f));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] masks = new int[INITIAL_SEGMENT_CAPACITY];
+        private int[] times = new int[INITIAL_SEGMENT_CAPACITY];
+        // Offset of the slot's value in text plus one, 0 for none
+        private int[] textOffsets = new int[INITIAL_SEGMENT_CAPACITY];
+        private byte[] text = new byte[INITIAL_TEXT_CAPACITY];
+        private int textSize;
+        private volatile int size;
+
+        long get(long key, long h, boolean time) {
+            long stamp = lock.tryOptimisticRead();
+            long result = find(key, h, time);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    result = find(key, h, time);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return result;
+        }
+
+        private long find(long key, long h, boolean time) {
+            long[] k = keys;
+            int[] values = time ? times : masks;
+            // A concurrent resize can swap the arrays under us; the stamp check catches that
+            if (values.length != k.length) {
+                return ABSENT;
+            }
+            int mask = k.length - 1;
+            for (int i = (int) h & mask, probes = 0; probes < k.length; i = (i + 1) & mask, probes++) {
+                long existing = k[i];
+                if (existing == key) {
+                    return Integer.toUnsignedLong(values[i]);
+                }
+                if (existing == 0) {
+                    return ABSENT;
+                }
+            }
+            return ABSENT;
+        }
+
+        long update(long key, long h, int set, int clear, int flip, long now, boolean insert, String value) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                int i = (int) h & mask;
+                while (keys[i] != 0 && keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == key) {
+                    int old = masks[i];
+                    masks[i] = ((old | set) & ~clear) ^ flip;
+                    if (now != KEEP_TIME) {
+                        times[i] = (int) now;
+                    }
+                    return Integer.toUnsignedLong(old);
+                }
+                if (!insert) {
+                    return ABSENT;
+                }
+                keys[i] = key;
+                masks[i] = (set & ~clear) ^ flip;
+                times[i] = now == KEEP_TIME ? 0 : (int) now;
+                textOffsets[i] = value == null ? 0 : appendText(value) + 1;
+                size++;
+                if (size > keys.length * LOAD_FACTOR) {
+                    resize();
+                }
+                return ABSENT;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Returns the value's offset. Bytes already written never change, which is what lets
+        // forEach read the arena without copying it.
+        private int appendText(String value) {
+            int length = textLength(value);
+            int offset = textSize;
+            if (offset + length + 5 > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, offset + length + 5));
+            }
+            byte[] t = text;
+            int at = offset;
+            for (int n = length; ; n >>>= 7) {
+                if (n < 0x80) {
+                    t[at++] = (byte) n;
+                    break;
+                }
+                t[at++] = (byte) (n | 0x80);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 1 && c <= 0x7f) {
+                    t[at++] = (byte) c;
+                } else if (c <= 0x7ff) {
+                    t[at++] = (byte) (0xc0 | c >> 6);
+                    t[at++] = (byte) (0x80 | c & 0x3f);
+                } else {
+                    t[at++] = (byte) (0xe0 | c >> 12);
+                    t[at++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    t[at++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            textSize = at;
+            return offset;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldMasks = masks;
+            int[] oldTimes = times;
+            int[] oldTextOffsets = textOffsets;
+            long[] newKeys = new long[oldKeys.length * 2];
+            int[] newMasks = new int[newKeys.length];
+            int[] newTimes = new int[newKeys.length];
+            int[] newTextOffsets = new int[newKeys.length];
+            int mask = newKeys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                long key = oldKeys[j];
+                if (key == 0) {
+                    continue;
+                }
+                int i = (int) spread(key) & mask;
+                while (newKeys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                newKeys[i] = key;
+                newMasks[i] = oldMasks[j];
+                newTimes[i] = oldTimes[j];
+                newTextOffsets[i] = oldTextOffsets[j];
+            }
+            keys = newKeys;
+            masks = newMasks;
+            times = newTimes;
+            textOffsets = newTextOffsets;
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                keys = new long[INITIAL_SEGMENT_CAPACITY];
+                masks = new int[INITIAL_SEGMENT_CAPACITY];
+                times = new int[INITIAL_SEGMENT_CAPACITY];
+                textOffsets = new int[INITIAL_SEGMENT_CAPACITY];
+                text = new byte[INITIAL_TEXT_CAPACITY];
+                textSize = 0;
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void forEach(EntryVisitor visitor) {
+            long[] k;
+            int[] m;
+            int[] t;
+            int[] o;
+            byte[] text;
+            long stamp = lock.readLock();
+            try {
+                k = keys.clone();
+                m = masks.clone();
+                t = times.clone();
+                o = textOffsets.clone();
+                text = this.text;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] != 0) {
+                    visitor.visit(k[i], m[i], Integer.toUnsignedLong(t[i]), o[i] == 0 ? null : readText(text, o[i] - 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package annotator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters, latency timers and gauges for the extension's entry points, cheap enough to leave
+// on: recording is a couple of LongAdder increments, so scanner threads never wait on each
+// other, and everything else is worked out when a report is asked for.
+public class Metrics {
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final List<String> gaugeOrder = new ArrayList<>();
+
+    public enum Unit {
+        COUNT, BYTES
+    }
+
+    private record Gauge(LongSupplier value, Unit unit) { }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Read whenever a report is made, on whichever thread makes it
+    public synchronized void gauge(String name, Unit unit, LongSupplier value) {
+        if (gauges.put(name, new Gauge(value, unit)) == null) {
+            gaugeOrder.add(name);
+        }
+    }
+
+    public synchronized List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (Timer timer : timers.values()) {
+            lines.add(timer.toString());
+        }
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            lines.add(String.format("%-16s %,d", counter.getKey(), counter.getValue().sum()));
+        }
+        for (String name : gaugeOrder) {
+            Gauge gauge = gauges.get(name);
+            long value = gauge.value().getAsLong();
+            lines.add(String.format("%-16s %s", name,
+                gauge.unit() == Unit.BYTES ? formatBytes(value) : String.format("%,d", value)));
+        }
+        return lines;
+    }
+
+    // Latency histogram with two buckets per power of two, so percentiles are within about 20%,
+    // which is plenty for telling 100 ns from 10 ms. Only the count and total are exact.
+    public static final class Timer {
+        private static final int BUCKETS = 128;
+
+        private final String name;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Timer(String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Records the time since start, a System.nanoTime() taken when the call began
+        public void record(long start) {
+            long nanos = Math.max(0, System.nanoTime() - start);
+            buckets[bucket(nanos)].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            // Only contended on a new maximum, which soon stops happening
+            if (nanos > max.get()) {
+                max.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long percentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < 2) {
+                return (int) nanos;
+            }
+            int log = 63 - Long.numberOfLeadingZeros(nanos);
+            // The bit below the top one picks the upper or lower half of [2^log, 2^(log+1))
+            return 2 * log + (int) ((nanos >>> (log - 1)) & 1);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 2) {
+                return bucket;
+            }
+            int log = bucket / 2;
+            return (bucket % 2 == 0 ? 3L << (log - 1) : 1L << (log + 1)) - 1;
+        }
+
+        @Override
+        public String toString() {
+            long calls = count.sum();
+            if (calls == 0) {
+                return String.format("%-16s no calls", name);
+            }
+            return String.format("%-16s %,d calls  mean %s  p50 %s  p99 %s  max %s", name, calls,
+                formatNanos(totalNanos.sum() / calls), formatNanos(percentile(50)),
+                formatNanos(percentile(99)), formatNanos(max.get()));
+        }
+    }
+
+    static String formatNanos(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1f us", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.1f ms", nanos / 1e6);
+        }
+        return String.format("%.2f s", nanos / 1e9);
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,80 @@
+package annotator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// One passive auto-tagging rule, written one per line as
+//   tag: where kind [pattern]
+// where is request, response or any, and kind is one of
+//   literal    the pattern appears, ignoring ASCII case
+//   regex      java.util.regex pattern, run over the raw bytes as Latin-1
+//   reflected  a request parameter value of 4+ characters shows up in the response (no pattern)
+// Blank lines and lines starting with # are ignored.
+public record PassiveRule(String tag, Where where, Kind kind, String pattern) {
+    public static final String DEFAULT_RULES = String.join("\n",
+        "# tag: request|response|any literal|regex|reflected [pattern]",
+        CoverageGapJob.NEED_TO_SCAN_TAG + ": response reflected",
+        CoverageGapJob.NEED_TO_SCAN_TAG + ": request regex (?i)content-disposition:[^\\r\\n]*filename=",
+        "GraphQL: request literal /graphql",
+        "GraphQL: request regex \"query\"\\s*:\\s*\"\\s*(query|mutation|\\{)",
+        "JWT: any regex eyJ[A-Za-z0-9_-]{8,}\\.eyJ[A-Za-z0-9_-]{8,}\\.",
+        "");
+
+    public enum Where {
+        REQUEST, RESPONSE, ANY;
+
+        boolean covers(Where part) {
+            return this == ANY || this == part;
+        }
+    }
+
+    public enum Kind {
+        LITERAL, REGEX, REFLECTED
+    }
+
+    // Throws IllegalArgumentException naming the line for anything it can't read
+    public static List<PassiveRule> parse(String text) {
+        List<PassiveRule> rules = new ArrayList<>();
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(parseLine(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    private static PassiveRule parseLine(String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("expected \"tag: where kind pattern\"");
+        }
+        String tag = line.substring(0, colon).strip();
+        String[] parts = line.substring(colon + 1).strip().split("\\s+", 3);
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("expected where and kind after the tag");
+        }
+        Where where = valueOf(Where.class, parts[0], "where");
+        Kind kind = valueOf(Kind.class, parts[1], "kind");
+        String pattern = parts.length > 2 ? parts[2] : "";
+        if (kind != Kind.REFLECTED && pattern.isEmpty()) {
+            throw new IllegalArgumentException("missing pattern");
+        }
+        return new PassiveRule(tag, where, kind, pattern);
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> type, String name, String what) {
+        try {
+            return Enum.valueOf(type, name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown " + what + " '" + name + "'");
+        }
+    }
+}
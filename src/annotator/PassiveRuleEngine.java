@@ -0,0 +1,545 @@
+package annotator;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Passive rules compiled together. Every literal rule, and the longest literal each regex
+// can't match without, goes into one Aho-Corasick automaton, so a message costs a single pass
+// over its request and response bytes however many rules there are. Regexes then only run on
+// the parts where their literal turned up (or always, for the few with no usable literal).
+// Matching is on raw bytes: ASCII case is folded through a lookup table and regexes see the
+// bytes as Latin-1 chars, so bodies are never decoded into Strings.
+// Immutable, so one instance is shared by all scanner threads.
+public class PassiveRuleEngine {
+    public static final PassiveRuleEngine EMPTY = new PassiveRuleEngine(List.of(), new int[0][], new Automaton(List.of()));
+
+    // Bytes looked at per request or response; big downloads aren't worth a full pass
+    private static final int MAX_SCAN_BYTES = 1 << 20;
+    private static final int MIN_PREFILTER_LENGTH = 3;
+    private static final int MIN_REFLECTED_LENGTH = 4;
+
+    private final List<Compiled> rules;
+    // Rule indexes for each automaton pattern
+    private final int[][] rulesByPattern;
+    private final Automaton automaton;
+    private final int tagMask;
+    private final boolean hasReflected;
+
+    private record Compiled(PassiveRule rule, int bit, Pattern regex, boolean prefiltered) { }
+
+    private PassiveRuleEngine(List<Compiled> rules, int[][] rulesByPattern, Automaton automaton) {
+        this.rules = rules;
+        this.rulesByPattern = rulesByPattern;
+        this.automaton = automaton;
+        int mask = 0;
+        boolean reflected = false;
+        for (Compiled compiled : rules) {
+            mask |= compiled.bit;
+            reflected |= compiled.rule.kind() == PassiveRule.Kind.REFLECTED;
+        }
+        this.tagMask = mask;
+        this.hasReflected = reflected;
+    }
+
+    // Tags the rules use are added to the registry if they aren't there yet. Throws
+    // IllegalArgumentException with a message fit for the user for a bad regex or too many tags.
+    public static PassiveRuleEngine compile(List<PassiveRule> rules, TagRegistry registry) {
+        List<Compiled> compiled = new ArrayList<>();
+        Map<String, List<Integer>> patterns = new LinkedHashMap<>();
+        for (PassiveRule rule : rules) {
+            int bit;
+            try {
+                bit = registry.add(rule.tag(), TagRegistry.DEFAULT_COLOR).bit();
+            } catch (IllegalStateException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            String literal = null;
+            Pattern regex = null;
+            switch (rule.kind()) {
+                case LITERAL:
+                    literal = rule.pattern();
+                    break;
+                case REGEX:
+                    try {
+                        regex = Pattern.compile(rule.pattern());
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException("Bad regex for " + rule.tag() + ": " + e.getDescription());
+                    }
+                    literal = requiredLiteral(rule.pattern());
+                    break;
+                default:
+                    break;
+            }
+            if (literal != null) {
+                patterns.computeIfAbsent(asciiLowerCase(literal), p -> new ArrayList<>())
+                    .add(compiled.size());
+            }
+            compiled.add(new Compiled(rule, bit, regex, literal != null));
+        }
+        if (compiled.isEmpty()) {
+            return EMPTY;
+        }
+        List<byte[]> patternBytes = new ArrayList<>();
+        int[][] rulesByPattern = new int[patterns.size()][];
+        int id = 0;
+        for (Map.Entry<String, List<Integer>> entry : patterns.entrySet()) {
+            patternBytes.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            rulesByPattern[id++] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new PassiveRuleEngine(compiled, rulesByPattern, new Automaton(patternBytes));
+    }
+
+    // Only ASCII, to agree with the byte-level folding in the automaton
+    private static String asciiLowerCase(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    // Bits of every tag some rule can set
+    public int tagMask() {
+        return tagMask;
+    }
+
+    // Returns the tag bits of the rules that match, only trying rules whose bit is in wanted
+    public int match(HttpRequest request, HttpResponse response, int wanted) {
+        if ((wanted & tagMask) == 0) {
+            return 0;
+        }
+        byte[] requestBytes = scanBytes(request.toByteArray());
+        byte[] responseBytes = response != null ? scanBytes(response.toByteArray()) : new byte[0];
+        int requestLength = requestBytes.length;
+        int responseLength = responseBytes.length;
+
+        // Per rule, the parts (1 request, 2 response) where its literal was seen
+        int[] seen = new int[rules.size()];
+        int matched = scan(requestBytes, requestLength, PassiveRule.Where.REQUEST, wanted, seen, 0);
+        matched = scan(responseBytes, responseLength, PassiveRule.Where.RESPONSE, wanted, seen, matched);
+
+        for (int i = 0; i < rules.size(); i++) {
+            Compiled compiled = rules.get(i);
+            if ((wanted & compiled.bit & ~matched) == 0) {
+                continue;
+            }
+            PassiveRule.Where where = compiled.rule.where();
+            switch (compiled.rule.kind()) {
+                case REGEX:
+                    if (where.covers(PassiveRule.Where.REQUEST) && (!compiled.prefiltered || (seen[i] & 1) != 0)
+                        && compiled.regex.matcher(new Latin1(requestBytes, requestLength)).find()) {
+                        matched |= compiled.bit;
+                    } else if (where.covers(PassiveRule.Where.RESPONSE) && (!compiled.prefiltered || (seen[i] & 2) != 0)
+                        && compiled.regex.matcher(new Latin1(responseBytes, responseLength)).find()) {
+                        matched |= compiled.bit;
+                    }
+                    break;
+                case REFLECTED:
+                    if (reflected(request, responseBytes, responseLength)) {
+                        matched |= compiled.bit;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return matched & wanted;
+    }
+
+    // Only copies out the part we look at
+    private static byte[] scanBytes(ByteArray message) {
+        int length = message.length();
+        return length > MAX_SCAN_BYTES ? message.subArray(0, MAX_SCAN_BYTES).getBytes() : message.getBytes();
+    }
+
+    private int scan(byte[] bytes, int length, PassiveRule.Where part, int wanted, int[] seen, int matched) {
+        int partBit = part == PassiveRule.Where.REQUEST ? 1 : 2;
+        int[] table = automaton.table;
+        int[] classes = automaton.classes;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            int next = table[position + classes[bytes[i] & 0xff]];
+            if (next >= 0) {
+                position = next;
+                continue;
+            }
+            position = -next - 1;
+            for (int pattern : automaton.outputs[position / automaton.classCount]) {
+                for (int ruleIndex : rulesByPattern[pattern]) {
+                    Compiled compiled = rules.get(ruleIndex);
+                    if ((compiled.bit & wanted) == 0 || !compiled.rule.where().covers(part)) {
+                        continue;
+                    }
+                    if (compiled.rule.kind() == PassiveRule.Kind.LITERAL) {
+                        matched |= compiled.bit;
+                    } else {
+                        seen[ruleIndex] |= partBit;
+                    }
+                }
+            }
+        }
+        return matched;
+    }
+
+    // Parameter values are compared as sent and URL-decoded, against the raw response bytes
+    private boolean reflected(HttpRequest request, byte[] response, int length) {
+        if (!hasReflected || length == 0) {
+            return false;
+        }
+        for (ParsedHttpParameter parameter : request.parameters()) {
+            if (parameter.type() == HttpParameterType.COOKIE) {
+                continue;
+            }
+            String value = parameter.value();
+            if (value == null || value.length() < MIN_REFLECTED_LENGTH) {
+                continue;
+            }
+            if (contains(response, length, value.getBytes(StandardCharsets.UTF_8))) {
+                return true;
+            }
+            if (value.indexOf('%') >= 0 || value.indexOf('+') >= 0) {
+                try {
+                    String decoded = URLDecoder.decode(value, StandardCharsets.UTF_8);
+                    if (decoded.length() >= MIN_REFLECTED_LENGTH
+                        && contains(response, length, decoded.getBytes(StandardCharsets.UTF_8))) {
+                        return true;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not valid URL encoding, the raw check is all we can do
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(byte[] haystack, int length, byte[] needle) {
+        byte first = needle[0];
+        int last = length - needle.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (haystack[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Longest run of plain characters every match of the regex must contain, or null if there
+    // isn't a useful one. Conservative: anything inside a group, before ? * or {0, or in a
+    // pattern with top-level alternation or comments mode doesn't count. Escapes other than a
+    // backslash before punctuation end the run, and their arguments (\x41, \0101, \k<name>,
+    // \p{L}, \Q...\E and so on) are skipped so they aren't read as plain characters.
+    static String requiredLiteral(String regex) {
+        if (regex.matches("(?s).*\\(\\?[a-zA-Z-]*x.*")) {
+            return null;
+        }
+        StringBuilder run = new StringBuilder();
+        String best = "";
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= regex.length()) {
+                        return null;
+                    }
+                    char next = regex.charAt(++i);
+                    // \. \/ and friends are literals, \d \b \Q \1 and friends aren't
+                    if (!Character.isLetterOrDigit(next) && next < 0x80) {
+                        if (depth == 0) {
+                            run.append(next);
+                            continue;
+                        }
+                        break;
+                    }
+                    i = escapeEnd(regex, i);
+                    break;
+                case '[':
+                    i = classEnd(regex, i);
+                    break;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '|':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    break;
+                case '?':
+                case '*':
+                    // The character before was optional
+                    dropLast(run);
+                    break;
+                case '{':
+                    int close = regex.indexOf('}', i);
+                    if (close < 0) {
+                        return null;
+                    }
+                    if (regex.charAt(i + 1) == '0') {
+                        dropLast(run);
+                    }
+                    i = close;
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    break;
+                default:
+                    if (c < 0x80 && depth == 0) {
+                        run.append(c);
+                        continue;
+                    }
+                    break;
+            }
+            // Anything but a plain character ends the run
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+            run.setLength(0);
+        }
+        if (run.length() > best.length()) {
+            best = run.toString();
+        }
+        return best.length() >= MIN_PREFILTER_LENGTH ? best : null;
+    }
+
+    // Index of the last character of the escape whose letter or digit is at i. Where the
+    // length is unclear this errs long, which only shortens the literal.
+    private static int escapeEnd(String regex, int i) {
+        int last = regex.length() - 1;
+        char c = regex.charAt(i);
+        char following = i < last ? regex.charAt(i + 1) : 0;
+        int end;
+        switch (c) {
+            case 'x':
+                end = following == '{' ? closing(regex, i + 1, '}') : i + 2;
+                break;
+            case 'u':
+                end = i + 4;
+                break;
+            case 'c':
+                end = i + 1;
+                break;
+            case 'k':
+                end = closing(regex, i + 1, '>');
+                break;
+            case 'p':
+            case 'P':
+                end = following == '{' ? closing(regex, i + 1, '}') : i + 1;
+                break;
+            case 'N':
+            case 'b':
+            case 'B':
+                end = following == '{' ? closing(regex, i + 1, '}') : i;
+                break;
+            case 'Q':
+                int quoteEnd = regex.indexOf("\\E", i + 1);
+                end = quoteEnd < 0 ? last : quoteEnd + 1;
+                break;
+            default:
+                // \0 takes up to three octal digits, back references as many digits as there are
+                end = i;
+                if (c >= '0' && c <= '9') {
+                    while (end < last && Character.isDigit(regex.charAt(end + 1)) && (c != '0' || end - i < 3)) {
+                        end++;
+                    }
+                }
+                break;
+        }
+        return Math.min(end, last);
+    }
+
+    private static int closing(String regex, int from, char close) {
+        int at = regex.indexOf(close, from);
+        return at < 0 ? regex.length() - 1 : at;
+    }
+
+    // Index of the ] closing the class that opens at i. Classes nest ([a-z&&[^b]]), a ] straight
+    // after [ or [^ is part of the class, and escapes are skipped like outside one.
+    private static int classEnd(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = i + 1 < regex.length() ? escapeEnd(regex, i + 1) + 1 : i + 1;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                i++;
+                if (i < regex.length() && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < regex.length() && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == ']' && --depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static void dropLast(StringBuilder run) {
+        if (run.length() > 0) {
+            run.setLength(run.length() - 1);
+        }
+    }
+
+    // Read-only Latin-1 view of a byte range, for running regexes without decoding
+    private static final class Latin1 implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        Latin1(byte[] bytes, int length) {
+            this(bytes, 0, length);
+        }
+
+        Latin1(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    // Aho-Corasick over lower-cased bytes. Bytes are first mapped to classes (one per byte value
+    // used in some pattern, plus one for all the rest) to keep the dense transition table small.
+    private static final class Automaton {
+        private final int[] classes = new int[256];
+        private final int classCount;
+        // Indexed by state * classCount + class, holding the next state * classCount, or
+        // -(that + 1) if the next state ends a pattern, so the scan loop has no multiply and
+        // one sign test for output
+        private final int[] table;
+        private final int[][] outputs;
+
+        Automaton(List<byte[]> patterns) {
+            int count = 1;
+            int[] classOf = new int[256];
+            for (byte[] pattern : patterns) {
+                for (byte b : pattern) {
+                    if (classOf[b & 0xff] == 0) {
+                        classOf[b & 0xff] = count++;
+                    }
+                }
+            }
+            classCount = count;
+            for (int b = 0; b < 256; b++) {
+                int lower = b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+                classes[b] = classOf[lower];
+            }
+
+            // Trie first, with children in maps, then the failure links breadth first
+            List<Map<Integer, Integer>> children = new ArrayList<>();
+            List<List<Integer>> own = new ArrayList<>();
+            children.add(new HashMap<>());
+            own.add(new ArrayList<>());
+            for (int p = 0; p < patterns.size(); p++) {
+                int state = 0;
+                for (byte b : patterns.get(p)) {
+                    int c = classOf[b & 0xff];
+                    Integer child = children.get(state).get(c);
+                    if (child == null) {
+                        child = children.size();
+                        children.get(state).put(c, child);
+                        children.add(new HashMap<>());
+                        own.add(new ArrayList<>());
+                    }
+                    state = child;
+                }
+                own.get(state).add(p);
+            }
+            int states = children.size();
+            int[] transitions = new int[states * classCount];
+            outputs = new int[states][];
+            int[] fail = new int[states];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < classCount; c++) {
+                Integer child = children.get(0).get(c);
+                if (child != null) {
+                    transitions[c] = child;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                List<Integer> found = new ArrayList<>(own.get(state));
+                if (outputs[fail[state]] != null) {
+                    for (int p : outputs[fail[state]]) {
+                        found.add(p);
+                    }
+                }
+                outputs[state] = found.isEmpty() ? null : found.stream().mapToInt(Integer::intValue).toArray();
+                for (int c = 0; c < classCount; c++) {
+                    Integer child = children.get(state).get(c);
+                    if (child != null) {
+                        fail[child] = transitions[fail[state] * classCount + c];
+                        transitions[state * classCount + c] = child;
+                        queue.add(child);
+                    } else {
+                        transitions[state * classCount + c] = transitions[fail[state] * classCount + c];
+                    }
+                }
+            }
+            table = new int[transitions.length];
+            for (int i = 0; i < table.length; i++) {
+                int target = transitions[i];
+                table[i] = outputs[target] != null ? -(target * classCount) - 1 : target * classCount;
+            }
+        }
+    }
+}
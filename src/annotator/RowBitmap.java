@@ -0,0 +1,269 @@
+package annotator;
+
+import java.util.Arrays;
+
+// Compressed bitmap of non-negative row numbers, in the style of a roaring bitmap. Rows are split
+// into blocks of 65536; a block holds a sorted char array while it has at most 4096 rows and
+// switches to a plain 1024-word bitset once it gets denser. AND/OR/AND NOT work block by block,
+// so combining two bitmaps costs about what they hold rather than the number of rows.
+// Not thread-safe.
+public class RowBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    // blocks[i] is null, a char[] of sorted low bits, or a long[WORDS] bitset
+    private Object[] blocks = new Object[0];
+    private int[] sizes = new int[0];
+
+    public boolean contains(int row) {
+        int b = row >>> 16;
+        if (b >= blocks.length || blocks[b] == null) {
+            return false;
+        }
+        char low = (char) row;
+        Object block = blocks[b];
+        if (block instanceof long[]) {
+            return (((long[]) block)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) block, 0, sizes[b], low) >= 0;
+    }
+
+    public void add(int row) {
+        int b = row >>> 16;
+        ensureBlocks(b + 1);
+        char low = (char) row;
+        Object block = blocks[b];
+        if (block == null) {
+            char[] array = new char[4];
+            array[0] = low;
+            blocks[b] = array;
+            sizes[b] = 1;
+        } else if (block instanceof long[]) {
+            long[] bits = (long[]) block;
+            long before = bits[low >>> 6];
+            bits[low >>> 6] = before | (1L << low);
+            if (bits[low >>> 6] != before) {
+                sizes[b]++;
+            }
+        } else {
+            char[] array = (char[]) block;
+            int size = sizes[b];
+            int i = Arrays.binarySearch(array, 0, size, low);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (size == ARRAY_MAX) {
+                long[] bits = toBits(array, size);
+                bits[low >>> 6] |= 1L << low;
+                blocks[b] = bits;
+            } else {
+                if (size == array.length) {
+                    array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2));
+                    blocks[b] = array;
+                }
+                System.arraycopy(array, i, array, i + 1, size - i);
+                array[i] = low;
+            }
+            sizes[b] = size + 1;
+        }
+    }
+
+    public void remove(int row) {
+        int b = row >>> 16;
+        if (b >= blocks.length || blocks[b] == null) {
+            return;
+        }
+        char low = (char) row;
+        Object block = blocks[b];
+        if (block instanceof long[]) {
+            long[] bits = (long[]) block;
+            long before = bits[low >>> 6];
+            bits[low >>> 6] = before & ~(1L << low);
+            if (bits[low >>> 6] != before) {
+                sizes[b]--;
+                if (sizes[b] <= ARRAY_MAX / 2) {
+                    blocks[b] = toArray(bits, sizes[b]);
+                }
+            }
+        } else {
+            char[] array = (char[]) block;
+            int size = sizes[b];
+            int i = Arrays.binarySearch(array, 0, size, low);
+            if (i < 0) {
+                return;
+            }
+            System.arraycopy(array, i + 1, array, i, size - i - 1);
+            sizes[b] = size - 1;
+        }
+        if (sizes[b] == 0) {
+            blocks[b] = null;
+        }
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
+
+    // Every row in [0, rowCount)
+    public static RowBitmap range(int rowCount) {
+        RowBitmap bitmap = new RowBitmap();
+        int blockCount = (rowCount + 0xFFFF) >>> 16;
+        bitmap.ensureBlocks(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            int rowsInBlock = Math.min(0x10000, rowCount - (b << 16));
+            long[] bits = new long[WORDS];
+            Arrays.fill(bits, 0, rowsInBlock >>> 6, -1L);
+            if ((rowsInBlock & 63) != 0) {
+                bits[rowsInBlock >>> 6] = (1L << rowsInBlock) - 1;
+            }
+            bitmap.blocks[b] = bits;
+            bitmap.sizes[b] = rowsInBlock;
+        }
+        return bitmap;
+    }
+
+    public RowBitmap and(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int n = Math.min(blocks.length, other.blocks.length);
+        result.ensureBlocks(n);
+        for (int b = 0; b < n; b++) {
+            if (blocks[b] != null && other.blocks[b] != null) {
+                result.setBlock(b, combine(bits(b), other.bits(b), Op.AND));
+            }
+        }
+        return result;
+    }
+
+    public RowBitmap or(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int n = Math.max(blocks.length, other.blocks.length);
+        result.ensureBlocks(n);
+        for (int b = 0; b < n; b++) {
+            boolean mine = b < blocks.length && blocks[b] != null;
+            boolean theirs = b < other.blocks.length && other.blocks[b] != null;
+            if (mine && theirs) {
+                result.setBlock(b, combine(bits(b), other.bits(b), Op.OR));
+            } else if (mine) {
+                result.setBlock(b, bits(b).clone());
+            } else if (theirs) {
+                result.setBlock(b, other.bits(b).clone());
+            }
+        }
+        return result;
+    }
+
+    public RowBitmap andNot(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        result.ensureBlocks(blocks.length);
+        for (int b = 0; b < blocks.length; b++) {
+            if (blocks[b] == null) {
+                continue;
+            }
+            if (b < other.blocks.length && other.blocks[b] != null) {
+                result.setBlock(b, combine(bits(b), other.bits(b), Op.AND_NOT));
+            } else {
+                result.setBlock(b, bits(b).clone());
+            }
+        }
+        return result;
+    }
+
+    public interface RowVisitor {
+        void visit(int row);
+    }
+
+    // Visits rows in ascending order
+    public void forEach(RowVisitor visitor) {
+        for (int b = 0; b < blocks.length; b++) {
+            Object block = blocks[b];
+            int base = b << 16;
+            if (block instanceof long[]) {
+                long[] bits = (long[]) block;
+                for (int w = 0; w < WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        visitor.visit(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else if (block != null) {
+                char[] array = (char[]) block;
+                for (int i = 0; i < sizes[b]; i++) {
+                    visitor.visit(base + array[i]);
+                }
+            }
+        }
+    }
+
+    private enum Op { AND, OR, AND_NOT }
+
+    // Working on bitsets keeps the combine code simple; setBlock shrinks sparse results back down
+    private long[] bits(int b) {
+        Object block = blocks[b];
+        return block instanceof long[] ? (long[]) block : toBits((char[]) block, sizes[b]);
+    }
+
+    private static long[] combine(long[] a, long[] b, Op op) {
+        long[] out = new long[WORDS];
+        for (int w = 0; w < WORDS; w++) {
+            switch (op) {
+                case AND -> out[w] = a[w] & b[w];
+                case OR -> out[w] = a[w] | b[w];
+                case AND_NOT -> out[w] = a[w] & ~b[w];
+            }
+        }
+        return out;
+    }
+
+    private void setBlock(int b, long[] bits) {
+        int size = 0;
+        for (long word : bits) {
+            size += Long.bitCount(word);
+        }
+        if (size == 0) {
+            blocks[b] = null;
+        } else if (size <= ARRAY_MAX) {
+            blocks[b] = toArray(bits, size);
+        } else {
+            blocks[b] = bits;
+        }
+        sizes[b] = size;
+    }
+
+    private static long[] toBits(char[] array, int size) {
+        long[] bits = new long[WORDS];
+        for (int i = 0; i < size; i++) {
+            bits[array[i] >>> 6] |= 1L << array[i];
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int size) {
+        char[] array = new char[Math.max(size, 4)];
+        int i = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                array[i++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+
+    private void ensureBlocks(int count) {
+        if (blocks.length < count) {
+            blocks = Arrays.copyOf(blocks, count);
+            sizes = Arrays.copyOf(sizes, count);
+        }
+    }
+}
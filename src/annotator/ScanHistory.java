@@ -0,0 +1,459 @@
+package annotator;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+// The last DEPTH scan and tag events for each key, so we can tell when a URL was scanned, how
+// often, and whether its response has changed since. Laid out like LongTagMap: segments with
+// their own StampedLock, open addressing from key to row, and every column a flat primitive
+// array. A row's events sit next to each other as a ring (time, response hash, and kind and
+// tool packed into a byte), so there is no object per key or per event; 120 to 160 bytes a key
+// depending on how recently the arrays grew.
+//
+// Only keys with a scan or tag event get a row. Responses seen in passing (passive audit) only
+// touch keys that already have one and only add an event when the response hash changes, so
+// browsing doesn't grow the history. A key is stale when the response it was last actively
+// scanned with differs from the latest one seen.
+//
+// Kept for the session only; a fresh load starts with an empty history.
+public class ScanHistory {
+    public static final int DEPTH = 8;
+    public static final String STALE_TAG = "Stale";
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    // Only the start of big bodies is hashed; later changes there go unnoticed
+    private static final int MAX_HASHED_BYTES = 64 * 1024;
+    private static final ToolType[] TOOLS = ToolType.values();
+    private static final long NO_ROW = -1L;
+
+    public enum Kind {
+        SCANNED, CHANGED, TAGGED
+    }
+
+    // Built only when something asks for a key's history
+    public record Event(long timeMillis, Kind kind, ToolType tool, int responseHash) { }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicInteger staleCount = new AtomicInteger();
+
+    public ScanHistory() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Hash of the status code and the start of the body, 0 for no response. Digits are skipped
+    // so timestamps, counters and ids in a page don't make every response look changed.
+    public static int responseHash(HttpResponse response) {
+        if (response == null) {
+            return 0;
+        }
+        ByteArray body = response.body();
+        int length = body == null ? 0 : body.length();
+        byte[] bytes = length == 0 ? new byte[0]
+            : length <= MAX_HASHED_BYTES ? body.getBytes() : body.subArray(0, MAX_HASHED_BYTES).getBytes();
+        int h = 0x811c9dc5 ^ response.statusCode();
+        for (byte b : bytes) {
+            if (b < '0' || b > '9') {
+                h = (h ^ b) * 0x01000193;
+            }
+        }
+        // 0 means no response
+        return h == 0 ? 1 : h;
+    }
+
+    // An active scan of the key saw this response. Returns true if the key was stale until now.
+    public boolean recordScan(long key, int responseHash, long nowSeconds) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).recordScan(key, h, responseHash, nowSeconds);
+    }
+
+    // A response for the key went past. Only keys already in the history are updated; returns
+    // true if this made the key stale.
+    public boolean recordResponse(long key, int responseHash, long nowSeconds) {
+        if (responseHash == 0) {
+            return false;
+        }
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).recordResponse(key, h, responseHash, nowSeconds);
+    }
+
+    // Only worth hashing a response for keys that have a row
+    public boolean contains(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).seenHash(key, h) != NO_ROW;
+    }
+
+    public void recordTag(long key, ToolType tool, long nowSeconds) {
+        key = normalize(key);
+        long h = spread(key);
+        segmentFor(h).recordTag(key, h, tool, nowSeconds);
+    }
+
+    public boolean isStale(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).isStale(key, h);
+    }
+
+    // Active scans seen for the key, including ones older than the DEPTH events kept
+    public int scanCount(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).scanCount(key, h);
+    }
+
+    // Up to DEPTH events, newest first
+    public List<Event> events(long key) {
+        key = normalize(key);
+        long h = spread(key);
+        return segmentFor(h).events(key, h);
+    }
+
+    // Visits the stale keys. Like LongTagMap.forEach, each segment's stale keys are collected
+    // under its read lock and visited after it's released.
+    public void forEachStale(LongConsumer visitor) {
+        for (Segment segment : segments) {
+            for (long key : segment.staleKeys()) {
+                visitor.accept(key);
+            }
+        }
+    }
+
+    public int staleCount() {
+        return staleCount.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.rowCount;
+        }
+        return size;
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.memoryBytes();
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        staleCount.set(0);
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int) (h >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long normalize(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    // Same finalizer as LongTagMap
+    private static long spread(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private final class Segment {
+        private final StampedLock lock = new StampedLock();
+        // Index: key to row
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] slotRows = new int[INITIAL_SEGMENT_CAPACITY];
+        // One entry per row
+        private long[] rowKeys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] scanHashes = new int[INITIAL_SEGMENT_CAPACITY];
+        private int[] seenHashes = new int[INITIAL_SEGMENT_CAPACITY];
+        private int[] scans = new int[INITIAL_SEGMENT_CAPACITY];
+        private int[] written = new int[INITIAL_SEGMENT_CAPACITY];
+        // DEPTH entries per row
+        private int[] times = new int[INITIAL_SEGMENT_CAPACITY * DEPTH];
+        private int[] hashes = new int[INITIAL_SEGMENT_CAPACITY * DEPTH];
+        private byte[] meta = new byte[INITIAL_SEGMENT_CAPACITY * DEPTH];
+        private volatile int rowCount;
+
+        boolean recordScan(long key, long h, int responseHash, long now) {
+            long stamp = lock.writeLock();
+            try {
+                int row = findOrInsert(key, h);
+                boolean wasStale = stale(row);
+                scans[row]++;
+                scanHashes[row] = responseHash;
+                seenHashes[row] = responseHash;
+                append(row, Kind.SCANNED, ToolType.SCANNER, responseHash, now);
+                if (wasStale) {
+                    staleCount.decrementAndGet();
+                }
+                return wasStale;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean recordResponse(long key, long h, int responseHash, long now) {
+            // Nearly always the same response as last time, which needs no lock at all
+            long seen = seenHash(key, h);
+            if (seen == NO_ROW || seen == Integer.toUnsignedLong(responseHash)) {
+                return false;
+            }
+            long stamp = lock.writeLock();
+            try {
+                int row = find(key, h);
+                if (row < 0 || seenHashes[row] == responseHash) {
+                    return false;
+                }
+                boolean wasStale = stale(row);
+                seenHashes[row] = responseHash;
+                append(row, Kind.CHANGED, null, responseHash, now);
+                boolean isStale = stale(row);
+                if (wasStale != isStale) {
+                    staleCount.addAndGet(isStale ? 1 : -1);
+                }
+                return isStale && !wasStale;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void recordTag(long key, long h, ToolType tool, long now) {
+            long stamp = lock.writeLock();
+            try {
+                int row = findOrInsert(key, h);
+                append(row, Kind.TAGGED, tool, seenHashes[row], now);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Latest response hash seen for the key, read back unsigned, or NO_ROW
+        long seenHash(long key, long h) {
+            long stamp = lock.tryOptimisticRead();
+            long result = peekSeenHash(key, h);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    result = peekSeenHash(key, h);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return result;
+        }
+
+        private long peekSeenHash(long key, long h) {
+            long[] k = keys;
+            int[] r = slotRows;
+            int[] seen = seenHashes;
+            // A concurrent resize can swap the arrays under us; the stamp check catches that
+            if (r.length != k.length) {
+                return NO_ROW;
+            }
+            int mask = k.length - 1;
+            for (int i = (int) h & mask, probes = 0; probes < k.length; i = (i + 1) & mask, probes++) {
+                long existing = k[i];
+                if (existing == key) {
+                    int row = r[i];
+                    return row < seen.length ? Integer.toUnsignedLong(seen[row]) : NO_ROW;
+                }
+                if (existing == 0) {
+                    return NO_ROW;
+                }
+            }
+            return NO_ROW;
+        }
+
+        boolean isStale(long key, long h) {
+            long stamp = lock.readLock();
+            try {
+                int row = find(key, h);
+                return row >= 0 && stale(row);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int scanCount(long key, long h) {
+            long stamp = lock.readLock();
+            try {
+                int row = find(key, h);
+                return row < 0 ? 0 : scans[row];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        List<Event> events(long key, long h) {
+            long stamp = lock.readLock();
+            try {
+                int row = find(key, h);
+                if (row < 0) {
+                    return List.of();
+                }
+                int count = Math.min(written[row], DEPTH);
+                List<Event> events = new ArrayList<>(count);
+                for (int n = 1; n <= count; n++) {
+                    int i = row * DEPTH + (written[row] - n) % DEPTH;
+                    int tool = (meta[i] & 0x1f) - 1;
+                    events.add(new Event(Integer.toUnsignedLong(times[i]) * 1000, Kind.values()[meta[i] >>> 5],
+                        tool < 0 ? null : TOOLS[tool], hashes[i]));
+                }
+                return events;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long[] staleKeys() {
+            long stamp = lock.readLock();
+            try {
+                long[] found = new long[0];
+                int count = 0;
+                for (int row = 0; row < rowCount; row++) {
+                    if (stale(row)) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, Math.max(16, count * 2));
+                        }
+                        found[count++] = rowKeys[row];
+                    }
+                }
+                return Arrays.copyOf(found, count);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long memoryBytes() {
+            long stamp = lock.readLock();
+            try {
+                return (long) keys.length * (Long.BYTES + Integer.BYTES)
+                    + (long) rowKeys.length * (Long.BYTES + 4 * Integer.BYTES)
+                    + (long) times.length * (2 * Integer.BYTES + 1);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                keys = new long[INITIAL_SEGMENT_CAPACITY];
+                slotRows = new int[INITIAL_SEGMENT_CAPACITY];
+                rowKeys = new long[INITIAL_SEGMENT_CAPACITY];
+                scanHashes = new int[INITIAL_SEGMENT_CAPACITY];
+                seenHashes = new int[INITIAL_SEGMENT_CAPACITY];
+                scans = new int[INITIAL_SEGMENT_CAPACITY];
+                written = new int[INITIAL_SEGMENT_CAPACITY];
+                times = new int[INITIAL_SEGMENT_CAPACITY * DEPTH];
+                hashes = new int[INITIAL_SEGMENT_CAPACITY * DEPTH];
+                meta = new byte[INITIAL_SEGMENT_CAPACITY * DEPTH];
+                rowCount = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Callers hold the lock from here down
+
+        private boolean stale(int row) {
+            return scans[row] > 0 && scanHashes[row] != 0 && seenHashes[row] != scanHashes[row];
+        }
+
+        private void append(int row, Kind kind, ToolType tool, int responseHash, long now) {
+            int i = row * DEPTH + written[row] % DEPTH;
+            times[i] = (int) now;
+            hashes[i] = responseHash;
+            // Tool 0 is none; anything past what five bits hold is recorded as none too
+            int toolCode = tool == null || tool.ordinal() >= 0x1f ? 0 : tool.ordinal() + 1;
+            meta[i] = (byte) (kind.ordinal() << 5 | toolCode);
+            // Wraps after 2^31 events, which only moves where the ring starts
+            written[row] = (written[row] + 1) & Integer.MAX_VALUE;
+        }
+
+        private int find(long key, long h) {
+            int mask = keys.length - 1;
+            for (int i = (int) h & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return slotRows[i];
+                }
+            }
+            return -1;
+        }
+
+        private int findOrInsert(long key, long h) {
+            int mask = keys.length - 1;
+            int i = (int) h & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    return slotRows[i];
+                }
+                i = (i + 1) & mask;
+            }
+            int row = rowCount;
+            if (row == rowKeys.length) {
+                growRows();
+            }
+            keys[i] = key;
+            slotRows[i] = row;
+            rowKeys[row] = key;
+            rowCount = row + 1;
+            if (rowCount > keys.length * LOAD_FACTOR) {
+                resizeIndex();
+            }
+            return row;
+        }
+
+        private void growRows() {
+            // Rows are most of the memory, so they grow by half rather than doubling
+            int rows = rowKeys.length + rowKeys.length / 2;
+            rowKeys = Arrays.copyOf(rowKeys, rows);
+            scanHashes = Arrays.copyOf(scanHashes, rows);
+            seenHashes = Arrays.copyOf(seenHashes, rows);
+            scans = Arrays.copyOf(scans, rows);
+            written = Arrays.copyOf(written, rows);
+            times = Arrays.copyOf(times, rows * DEPTH);
+            hashes = Arrays.copyOf(hashes, rows * DEPTH);
+            meta = Arrays.copyOf(meta, rows * DEPTH);
+        }
+
+        private void resizeIndex() {
+            long[] newKeys = new long[keys.length * 2];
+            int[] newRows = new int[newKeys.length];
+            int mask = newKeys.length - 1;
+            for (int row = 0; row < rowCount; row++) {
+                long key = rowKeys[row];
+                int i = (int) spread(key) & mask;
+                while (newKeys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                newKeys[i] = key;
+                newRows[i] = row;
+            }
+            keys = newKeys;
+            slotRows = newRows;
+        }
+    }
+}
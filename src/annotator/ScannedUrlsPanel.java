@@ -1,264 +1,457 @@
 package annotator;
 
 import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
-import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableCellEditor;
-import javax.swing.table.TableRowSorter;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.HashSet;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ScannedUrlsPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final int FLUSH_INTERVAL_MS = 100;
+    private static final int MAX_BATCH = 10_000;
+    private static final int STATS_INTERVAL_MS = 1000;
+
+    private final AnnotationStore store;
     private final UrlTableModel tableModel;
     private final JTable urlTable;
-    private static final String[] AVAILABLE_TAGS = {"Scanned", "Param Miner", "XSS", "SQLi", "Need to Scan"};
+    private final CoverageTree coverage;
+    private final Timer flushTimer;
+    private final JProgressBar loadingBar;
+    private final JComboBox<KeyMode> keyModeBox;
+    private Consumer<KeyMode> keyModeListener = mode -> { };
+    private final JComboBox<IssueMode> issueModeBox;
+    private Consumer<IssueMode> issueModeListener = mode -> { };
+    private int generation;
+    private final TagRegistry tagRegistry;
+    private final JTextField searchField;
+    private final JTextField tagFilterField;
+    private final JButton findUnscannedButton;
+    private Runnable findUnscanned = () -> { };
+    private Runnable cancelFindUnscanned = () -> { };
+    private Supplier<String> passiveRulesText = () -> "";
+    private Function<String, String> savePassiveRules = text -> null;
+    private Supplier<String> syncStatus = () -> null;
+    private Function<Path, String> startSync = dir -> null;
+    private Runnable stopSync = () -> { };
+    private boolean findUnscannedRunning;
+    private final JButton exportButton;
+    private final JButton importButton;
+    private final JPanel statsPanel;
+    private final JTextArea statsText;
+    private final JToggleButton statsButton;
+    private final Timer statsTimer;
+    private Metrics metrics;
 
-    public ScannedUrlsPanel() {
+    public ScannedUrlsPanel(AnnotationStore store) {
+        this.store = store;
+        this.tagRegistry = store.tagRegistry();
         setLayout(new BorderLayout());
         
-        // Create the table model
-        tableModel = new UrlTableModel();
+        // Create the coverage tree and the table model
+        coverage = new CoverageTree(tagRegistry);
+        tableModel = new UrlTableModel(store, coverage);
         urlTable = new JTable(tableModel);
+        tableModel.setTable(urlTable);
         
-        // Enable sorting
-        TableRowSorter<UrlTableModel> sorter = new TableRowSorter<>(tableModel);
-        urlTable.setRowSorter(sorter);
+        // The model keeps its rows sorted by URL; clicking a header flips the direction
+        urlTable.getTableHeader().setToolTipText("Click to reverse the sort order");
+        urlTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                tableModel.setAscending(!tableModel.isAscending());
+            }
+        });
         
         // Set column widths
         urlTable.getColumnModel().getColumn(0).setPreferredWidth(400);
         urlTable.getColumnModel().getColumn(1).setPreferredWidth(200);
         
         // Set custom renderer for the tags column
-        urlTable.getColumnModel().getColumn(1).setCellRenderer(new TagRenderer());
+        urlTable.getColumnModel().getColumn(1).setCellRenderer(new TagCellRenderer(tagRegistry));
         
         // Set custom editor for the tags column
-        urlTable.getColumnModel().getColumn(1).setCellEditor(new TagEditor());
+        urlTable.getColumnModel().getColumn(1).setCellEditor(new TagCellEditor(store, this::flush));
+        // Catch up on view changes held back while a cell was being edited
+        urlTable.addPropertyChangeListener("tableCellEditor", e -> {
+            if (e.getNewValue() == null) {
+                SwingUtilities.invokeLater(tableModel::refreshIfStale);
+            }
+        });
         
-        // Add a scroll pane for the table
+        // Coverage per host and directory on the left, the URLs on the right
         JScrollPane scrollPane = new JScrollPane(urlTable);
-        add(scrollPane, BorderLayout.CENTER);
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(coverage.createView()), scrollPane);
+        split.setResizeWeight(0.3);
+        add(split, BorderLayout.CENTER);
         
-        // Add a label at the top
+        // Add a label at the top, with a progress bar while existing issues are loaded
         JLabel titleLabel = new JLabel("Annotator");
         titleLabel.setHorizontalAlignment(SwingConstants.CENTER);
-        add(titleLabel, BorderLayout.NORTH);
-    }
+        loadingBar = new JProgressBar();
+        loadingBar.setStringPainted(true);
+        loadingBar.setVisible(false);
+        keyModeBox = new JComboBox<>(KeyMode.values());
+        keyModeBox.setSelectedItem(store.keyMode());
+        keyModeBox.addActionListener(e -> {
+            KeyMode mode = (KeyMode) keyModeBox.getSelectedItem();
+            if (mode != null && mode != store.keyMode()) {
+                keyModeListener.accept(mode);
+            }
+        });
+        issueModeBox = new JComboBox<>(IssueMode.values());
+        issueModeBox.setToolTipText("Issues reported to Burp for scanned URLs; the table tracks them either way");
+        issueModeBox.addActionListener(e -> {
+            IssueMode mode = (IssueMode) issueModeBox.getSelectedItem();
+            if (mode != null) {
+                issueModeListener.accept(mode);
+            }
+        });
+        searchField = new JTextField(24);
+        searchField.setToolTipText("Filter by URL substring; host:name limits to matching hosts");
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                tableModel.setSearch(searchField.getText());
+            }
 
-    public void addScannedUrl(String url) {
-        tableModel.addUrl(url);
-    }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                tableModel.setSearch(searchField.getText());
+            }
 
-    public void addScannedUrl(String url, String tag) {
-        tableModel.addUrl(url);
-        // Find the newly added URL and toggle the specified tag
-        //I'm not sure about performance so maybe come back to this and see if there is a better way
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            UrlEntry entry = (UrlEntry) tableModel.getValueAt(i, 1);
-            if (entry.url.equals(url)) {
-                tableModel.toggleTag(i, tag);
-                break;
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                tableModel.setSearch(searchField.getText());
             }
-        }
+        });
+        tagFilterField = new JTextField(24);
+        tagFilterField.setToolTipText("Tag filter, e.g. SQLi & !Scanned or (XSS | SQLi) & !Need to Scan");
+        tagFilterField.addActionListener(e -> setTagFilter(tagFilterField.getText()));
+        JButton addTagButton = new JButton("Add tag...");
+        addTagButton.addActionListener(e -> promptForTag());
+        findUnscannedButton = new JButton("Find unscanned");
+        findUnscannedButton.setToolTipText("Tag in-scope site-map items that were never actively scanned with \"Need to Scan\"");
+        findUnscannedButton.addActionListener(e -> (findUnscannedRunning ? cancelFindUnscanned : findUnscanned).run());
+        JButton passiveRulesButton = new JButton("Passive rules...");
+        passiveRulesButton.setToolTipText("Rules that tag URLs from the traffic Burp passively scans");
+        passiveRulesButton.addActionListener(e -> editPassiveRules());
+        JButton syncButton = new JButton("Sync...");
+        syncButton.setToolTipText("Share tags and scan marks with other testers through a shared folder");
+        syncButton.addActionListener(e -> editSync());
+        exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> exportAnnotations());
+        importButton = new JButton("Import...");
+        importButton.addActionListener(e -> importAnnotations());
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(new JLabel("Identify rows by:"));
+        options.add(keyModeBox);
+        options.add(new JLabel("Scan issues:"));
+        options.add(issueModeBox);
+        options.add(new JLabel("Search:"));
+        options.add(searchField);
+        options.add(new JLabel("Tag filter:"));
+        options.add(tagFilterField);
+        options.add(addTagButton);
+        options.add(findUnscannedButton);
+        options.add(passiveRulesButton);
+        options.add(syncButton);
+        options.add(exportButton);
+        options.add(importButton);
+        statsButton = new JToggleButton("Stats");
+        statsButton.setVisible(false);
+        statsButton.addActionListener(e -> toggleStats());
+        options.add(statsButton);
+        JPanel header = new JPanel(new BorderLayout());
+        header.add(titleLabel, BorderLayout.NORTH);
+        header.add(options, BorderLayout.CENTER);
+        header.add(loadingBar, BorderLayout.SOUTH);
+        add(header, BorderLayout.NORTH);
+
+        // Stats along the bottom, hidden until metrics are set and the Stats button is pressed
+        statsText = new JTextArea(8, 80);
+        statsText.setEditable(false);
+        statsText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, statsText.getFont().getSize()));
+        statsPanel = new JPanel(new BorderLayout());
+        statsPanel.setBorder(BorderFactory.createTitledBorder("Stats"));
+        statsPanel.add(new JScrollPane(statsText), BorderLayout.CENTER);
+        statsPanel.setVisible(false);
+        add(statsPanel, BorderLayout.SOUTH);
+        statsTimer = new Timer(STATS_INTERVAL_MS, e -> refreshStats());
+        statsTimer.start();
+
+        // Scanner threads only write to the store; changes reach the table in batches on the EDT
+        flushTimer = new Timer(FLUSH_INTERVAL_MS, e -> flush());
+        flushTimer.setCoalesce(true);
+        flushTimer.start();
     }
 
-    public boolean hasUrl(String url) {
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            UrlEntry entry = (UrlEntry) tableModel.getValueAt(i, 1);
-            if (entry.url.equals(url)) {
-                return true;
-            }
-        }
-        return false;
+    public void addScannedUrl(UrlKey key) {
+        store.add(key);
     }
 
-    public boolean hasScannedTag(String url) {
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            UrlEntry entry = (UrlEntry) tableModel.getValueAt(i, 1);
-            if (entry.url.equals(url)) {
-                return entry.isScanned;
-            }
-        }
-        return false;
+    public void addScannedUrl(UrlKey key, String tag) {
+        store.addTag(key, tag);
     }
 
-    // Custom table model
-    private class UrlTableModel extends AbstractTableModel {
-        private final List<UrlEntry> urls = new ArrayList<>();
-        private final String[] columnNames = {"URL", "Tags"};
+    public boolean hasUrl(UrlKey key) {
+        return store.contains(key);
+    }
 
-        @Override
-        public int getRowCount() {
-            return urls.size();
-        }
+    public boolean hasScannedTag(UrlKey key) {
+        return store.isScanned(key);
+    }
 
-        @Override
-        public int getColumnCount() {
-            return columnNames.length;
-        }
+    // Safe to call from any thread. A negative total shows an indeterminate bar,
+    // and the bar hides itself once done reaches total.
+    public void setLoadingProgress(int done, int total) {
+        showProgress(total < 0 ? "Loading existing issues..." : "Loading existing issues " + done + " / " + total,
+            done, total);
+    }
 
-        @Override
-        public String getColumnName(int column) {
-            return columnNames[column];
-        }
+    // Same bar as above for other background jobs; text replaces the loading message
+    public void showProgress(String text, int done, int total) {
+        SwingUtilities.invokeLater(() -> {
+            if (total < 0) {
+                loadingBar.setIndeterminate(true);
+                loadingBar.setString(text);
+                loadingBar.setVisible(true);
+            } else if (done >= total) {
+                loadingBar.setVisible(false);
+            } else {
+                loadingBar.setIndeterminate(false);
+                loadingBar.setMaximum(total);
+                loadingBar.setValue(done);
+                loadingBar.setString(text);
+                loadingBar.setVisible(true);
+            }
+            revalidate();
+        });
+    }
 
-        @Override
-        public Object getValueAt(int rowIndex, int columnIndex) {
-            UrlEntry entry = urls.get(rowIndex);
-            return columnIndex == 0 ? entry.url : entry;
-        }
+    // Actions for the "Find unscanned" button, called on the EDT
+    public void setFindUnscannedActions(Runnable start, Runnable cancel) {
+        this.findUnscanned = start;
+        this.cancelFindUnscanned = cancel;
+    }
 
-        @Override
-        public boolean isCellEditable(int rowIndex, int columnIndex) {
-            return columnIndex == 1; // Only the tags column is editable
-        }
+    // While running, the button cancels the job instead; safe to call from any thread
+    public void setFindUnscannedRunning(boolean running) {
+        SwingUtilities.invokeLater(() -> {
+            findUnscannedRunning = running;
+            findUnscannedButton.setText(running ? "Cancel" : "Find unscanned");
+        });
+    }
 
-        @Override
-        public Class<?> getColumnClass(int columnIndex) {
-            return columnIndex == 0 ? String.class : UrlEntry.class;
-        }
+    // Where the rules text comes from and goes to; save returns an error message or null
+    public void setPassiveRulesActions(Supplier<String> text, Function<String, String> save) {
+        this.passiveRulesText = text;
+        this.savePassiveRules = save;
+    }
 
-        public void addUrl(String url) {
-            // Check if URL already exists
-            for (UrlEntry entry : urls) {
-                if (entry.url.equals(url)) {
-                    return;
-                }
+    // status gives what we sync through, or null when not syncing; start returns an error message
+    // or null. Both are called on the EDT.
+    public void setSyncActions(Supplier<String> status, Function<Path, String> start, Runnable stop) {
+        this.syncStatus = status;
+        this.startSync = start;
+        this.stopSync = stop;
+    }
+
+    private void editSync() {
+        String current = syncStatus.get();
+        if (current != null) {
+            int choice = JOptionPane.showConfirmDialog(this, "Syncing through " + current + ".\nStop syncing?",
+                "Sync", JOptionPane.YES_NO_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                stopSync.run();
             }
-            urls.add(new UrlEntry(url));
-            fireTableRowsInserted(urls.size() - 1, urls.size() - 1);
+            return;
         }
-
-        public void toggleTag(int row, String tag) {
-            urls.get(row).toggleTag(tag);
-            fireTableRowsUpdated(row, row);
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Folder shared with the other testers");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String error = startSync.apply(chooser.getSelectedFile().toPath());
+        if (error != null) {
+            JOptionPane.showMessageDialog(this, error, "Sync", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    // Custom cell renderer for tags
-    private class TagRenderer extends DefaultTableCellRenderer {
-        @Override
-        public Component getTableCellRendererComponent(JTable table, Object value,
-                boolean isSelected, boolean hasFocus, int row, int column) {
-            JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 2));
-            panel.setOpaque(true);
-            
-            if (isSelected) {
-                panel.setBackground(table.getSelectionBackground());
-            } else {
-                panel.setBackground(table.getBackground());
+    private void editPassiveRules() {
+        JTextArea text = new JTextArea(passiveRulesText.get(), 16, 80);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+        while (true) {
+            int choice = JOptionPane.showConfirmDialog(this, new JScrollPane(text), "Passive rules",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (choice != JOptionPane.OK_OPTION) {
+                return;
             }
-
-            if (value instanceof UrlEntry) {
-                UrlEntry entry = (UrlEntry) value;
-                
-                // Add all tags including Scanned if applicable
-                for (String tag : entry.getAllTags()) {
-                    Color tagColor = getTagColor(tag);
-                    JLabel tagLabel = createTag(tag, tagColor);
-                    panel.add(tagLabel);
-                }
+            String error = savePassiveRules.apply(text.getText());
+            if (error == null) {
+                return;
             }
-            
-            return panel;
+            JOptionPane.showMessageDialog(this, error, "Passive rules", JOptionPane.ERROR_MESSAGE);
         }
+    }
 
-        private JLabel createTag(String text, Color color) {
-            JLabel tag = new JLabel(text);
-            tag.setOpaque(true);
-            tag.setBackground(color);
-            tag.setForeground(Color.WHITE);
-            tag.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
-            tag.setFont(tag.getFont().deriveFont(Font.BOLD));
-            return tag;
-        }
+    // Called on the EDT when the user picks a different key mode
+    public void setKeyModeListener(Consumer<KeyMode> keyModeListener) {
+        this.keyModeListener = keyModeListener;
+    }
 
-        private Color getTagColor(String tag) {
-            return switch (tag) {
-                case "Scanned" -> new Color(76, 175, 80);  // Green
-                case "Param Miner" -> new Color(33, 150, 243);  // Blue
-                case "XSS" -> new Color(244, 67, 54);          // Red
-                case "SQLi" -> new Color(255, 152, 0);         // Orange
-                default -> new Color(156, 39, 176);            // Purple
-            };
+    // The listener is called on the EDT when the user picks a different issue mode
+    public void setIssueModeActions(IssueMode current, Consumer<IssueMode> issueModeListener) {
+        SwingUtilities.invokeLater(() -> {
+            issueModeBox.setSelectedItem(current);
+            this.issueModeListener = issueModeListener;
+        });
+    }
+
+    private void setTagFilter(String expression) {
+        tagFilterField.setForeground(UIManager.getColor("TextField.foreground"));
+        if (expression.isBlank()) {
+            tableModel.setTagFilter(null);
+            return;
         }
+        TagFilter tagFilter;
+        try {
+            tagFilter = TagFilter.parse(expression, tagRegistry);
+        } catch (IllegalArgumentException e) {
+            tagFilterField.setForeground(Color.RED);
+            tagFilterField.setToolTipText(e.getMessage());
+            return;
+        }
+        tagFilterField.setToolTipText(null);
+        tableModel.setTagFilter(tagFilter);
     }
 
-    // Custom cell editor for tags
-    private class TagEditor extends AbstractCellEditor implements TableCellEditor {
-        private final JComboBox<String> comboBox;
-        private UrlEntry currentEntry;
-
-        public TagEditor() {
-            comboBox = new JComboBox<>(AVAILABLE_TAGS);
-            comboBox.setEditable(false); // Prevent custom tag input
-            comboBox.addActionListener(e -> {
-                String selectedTag = (String) comboBox.getSelectedItem();
-                if (selectedTag != null && !selectedTag.isEmpty() && currentEntry != null) {
-                    // Convert view index to model index
-                    int viewRow = urlTable.getSelectedRow();
-                    int modelRow = urlTable.convertRowIndexToModel(viewRow);
-                    tableModel.toggleTag(modelRow, selectedTag);
-                }
-                stopCellEditing();
-            });
+    private void promptForTag() {
+        String name = JOptionPane.showInputDialog(this, "Tag name:", "Add tag", JOptionPane.PLAIN_MESSAGE);
+        if (name == null || name.isBlank()) {
+            return;
         }
+        Color color = JColorChooser.showDialog(this, "Tag color", TagRegistry.DEFAULT_COLOR);
+        try {
+            tagRegistry.add(name, color != null ? color : TagRegistry.DEFAULT_COLOR);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Add tag", JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-        @Override
-        public Component getTableCellEditorComponent(JTable table, Object value,
-                boolean isSelected, int row, int column) {
-            currentEntry = (UrlEntry) value;
-            return comboBox;
+    // Exports and imports run on their own thread, one at a time; imports merge through the store
+    // and reach the table through the usual flushes
+    private void exportAnnotations() {
+        JFileChooser chooser = transferChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        Path file = chooser.getSelectedFile().toPath();
+        runTransfer("Annotator export", () -> {
+            showProgress("Exporting...", 0, -1);
+            long count = AnnotationTransfer.export(store, file);
+            return "Exported " + count + " annotations to " + file.getFileName();
+        });
+    }
 
-        @Override
-        public Object getCellEditorValue() {
-            return currentEntry;
+    private void importAnnotations() {
+        JFileChooser chooser = transferChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        Path file = chooser.getSelectedFile().toPath();
+        runTransfer("Annotator import", () -> {
+            long size = Math.max(1, Files.size(file));
+            AnnotationTransfer.Result result = AnnotationTransfer.importFrom(store, file,
+                bytes -> showProgress("Importing " + (int) (100 * bytes / size) + "%", (int) (1000 * bytes / size), 1000),
+                () -> Thread.currentThread().isInterrupted());
+            return "Imported " + result.imported() + " annotations"
+                + (result.skipped() > 0 ? ", skipped " + result.skipped() : "");
+        });
     }
 
-    // Class to hold URL and its tags
-    private static class UrlEntry implements Comparable<UrlEntry> {
-        final String url;
-        final Set<String> tags;
-        boolean isScanned;
+    private JFileChooser transferChooser() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Annotations (.ndjson, .jsonl, .bin)", "ndjson", "jsonl", "bin", "annx"));
+        return chooser;
+    }
 
-        UrlEntry(String url) {
-            this.url = url;
-            this.tags = new HashSet<>();
-            this.isScanned = false; // Don't set as scanned by default
-        }
+    private interface Transfer {
+        String run() throws IOException;
+    }
 
-        void toggleTag(String tag) {
-            if (tag.equals("Scanned")) {
-                isScanned = !isScanned;
-            } else {
-                if (tags.contains(tag)) {
-                    tags.remove(tag);
-                } else {
-                    tags.add(tag);
-                }
+    private void runTransfer(String name, Transfer transfer) {
+        exportButton.setEnabled(false);
+        importButton.setEnabled(false);
+        Thread thread = new Thread(() -> {
+            String message;
+            int type = JOptionPane.INFORMATION_MESSAGE;
+            try {
+                message = transfer.run();
+            } catch (IOException | RuntimeException e) {
+                message = "Failed: " + e.getMessage();
+                type = JOptionPane.ERROR_MESSAGE;
             }
-        }
+            String text = message;
+            int messageType = type;
+            showProgress("", 1, 1);
+            SwingUtilities.invokeLater(() -> {
+                exportButton.setEnabled(true);
+                importButton.setEnabled(true);
+                JOptionPane.showMessageDialog(this, text, name, messageType);
+            });
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        Set<String> getAllTags() {
-            Set<String> allTags = new HashSet<>(tags);
-            if (isScanned) {
-                allTags.add("Scanned");
-            }
-            return allTags;
-        }
+    // Shows the metrics in the Stats section, with a button that writes them to log. Call on the EDT.
+    public void showStats(Metrics metrics, Consumer<String> log) {
+        this.metrics = metrics;
+        metrics.gauge("Table rows", Metrics.Unit.COUNT, tableModel::rowCount);
+        JButton dumpButton = new JButton("Dump to log");
+        dumpButton.addActionListener(e -> log.accept("Annotator stats\n" + String.join("\n", metrics.report())));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(dumpButton);
+        statsPanel.add(buttons, BorderLayout.SOUTH);
+        statsButton.setVisible(true);
+    }
+
+    private void toggleStats() {
+        statsPanel.setVisible(statsButton.isSelected());
+        refreshStats();
+        revalidate();
+    }
 
-        @Override
-        public int compareTo(UrlEntry other) {
-            return this.url.compareTo(other.url);
+    private void refreshStats() {
+        if (metrics != null && statsPanel.isShowing()) {
+            statsText.setText(String.join("\n", metrics.report()));
         }
+    }
 
-        @Override
-        public String toString() {
-            return String.join(", ", getAllTags());
+    public void dispose() {
+        flushTimer.stop();
+        statsTimer.stop();
+    }
+
+    // Applies queued store changes to the table, firing one event per kind of change
+    private void flush() {
+        if (generation != store.generation()) {
+            generation = store.generation();
+            tableModel.clear();
+        }
+        if (!store.hasPending()) {
+            return;
         }
+        tableModel.apply(store.drainPending(MAX_BATCH));
     }
-} 
\ No newline at end of file
+}
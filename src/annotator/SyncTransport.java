@@ -0,0 +1,29 @@
+package annotator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// Where AnnotationSync puts its batches and finds everyone else's. Each replica publishes its
+// own numbered batches (1, 2, 3, ...) and never rewrites them, so a transport only has to be
+// an append-only log per replica; readers keep track of how far they've got in each one.
+public interface SyncTransport extends Closeable {
+    record Batch(String replica, long seq, byte[] data) { }
+
+    // Publishing a seq that's already there must not leave a mix of old and new bytes
+    void publish(String replica, long seq, byte[] data) throws IOException;
+
+    // Batches from replicas other than self, starting right after the seq after says (0 for
+    // replicas not in it), in seq order per replica and at most max of them. A replica's batches
+    // stop at the first seq that's missing, since the ones past it can't be applied yet; a
+    // replica mapped to Long.MAX_VALUE is left out.
+    List<Batch> fetch(String self, Map<String, Long> after, int max) throws IOException;
+
+    // Shown in the UI
+    String describe();
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,53 @@
+package annotator;
+
+import javax.swing.AbstractCellEditor;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JComboBox;
+import javax.swing.JTable;
+import javax.swing.table.TableCellEditor;
+import java.awt.Component;
+
+// Cell editor for the tags column: picking a tag toggles it on the row's key, then runs
+// afterToggle so the table can show the change straight away
+public class TagCellEditor extends AbstractCellEditor implements TableCellEditor {
+    private static final long serialVersionUID = 1L;
+    private final TagRegistry tagRegistry;
+    private final JComboBox<String> comboBox;
+    private UrlTableModel.UrlEntry currentEntry;
+    private int knownTags;
+
+    public TagCellEditor(AnnotationStore store, Runnable afterToggle) {
+        this.tagRegistry = store.tagRegistry();
+        comboBox = new JComboBox<>();
+        comboBox.setEditable(false); // Prevent custom tag input
+        comboBox.addActionListener(e -> {
+            String selectedTag = (String) comboBox.getSelectedItem();
+            if (selectedTag != null && !selectedTag.isEmpty() && currentEntry != null) {
+                store.toggleTag(currentEntry.key, selectedTag);
+                afterToggle.run();
+            }
+            stopCellEditing();
+        });
+    }
+
+    @Override
+    public Component getTableCellEditorComponent(JTable table, Object value,
+            boolean isSelected, int row, int column) {
+        currentEntry = (UrlTableModel.UrlEntry) value;
+        // Pick up tags added since the editor was last shown
+        if (knownTags != tagRegistry.size()) {
+            DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>();
+            for (TagRegistry.Tag tag : tagRegistry.all()) {
+                model.addElement(tag.name());
+            }
+            comboBox.setModel(model);
+            knownTags = tagRegistry.size();
+        }
+        return comboBox;
+    }
+
+    @Override
+    public Object getCellEditorValue() {
+        return currentEntry;
+    }
+}
@@ -0,0 +1,150 @@
+package annotator;
+
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.table.TableCellRenderer;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+
+// Cell renderer for the tags column.
+// One component for every cell: getTableCellRendererComponent just records the row's mask and
+// paintComponent draws the chips straight onto it. Each chip's glyphs, size and colors are
+// built once per tag and font, so painting a cell allocates nothing.
+public class TagCellRenderer extends JComponent implements TableCellRenderer {
+    private static final long serialVersionUID = 1L;
+    private static final int GAP = 5;
+    private static final int PAD_X = 6;
+    private static final int PAD_Y = 2;
+
+    private final TagRegistry tagRegistry;
+    private Chip[] chips = new Chip[0];
+    private Font tableFont;
+    private Font chipBaseFont;
+    private FontRenderContext chipContext;
+    private int tags;
+    private boolean selected;
+    private Color background;
+
+    public TagCellRenderer(TagRegistry tagRegistry) {
+        this.tagRegistry = tagRegistry;
+        setOpaque(true);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value,
+            boolean isSelected, boolean hasFocus, int row, int column) {
+        tags = value instanceof UrlTableModel.UrlEntry ? ((UrlTableModel.UrlEntry) value).tags : 0;
+        selected = isSelected;
+        background = isSelected ? table.getSelectionBackground() : table.getBackground();
+        tableFont = table.getFont();
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(background);
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (tags == 0) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        Chip[] current = chipsFor(g2);
+        int x = GAP;
+        int remaining = tags;
+        while (remaining != 0) {
+            int id = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if (id >= current.length || current[id] == null) {
+                continue;
+            }
+            Chip chip = current[id];
+            int y = (getHeight() - chip.height) / 2;
+            g2.setColor(chip.color);
+            g2.fillRect(x, y, chip.width, chip.height);
+            if (selected) {
+                g2.setColor(chip.selectedOutline);
+                g2.drawRect(x, y, chip.width - 1, chip.height - 1);
+            }
+            g2.setColor(Color.WHITE);
+            g2.drawGlyphVector(chip.glyphs, x + PAD_X, y + PAD_Y + chip.ascent);
+            x += chip.width + GAP;
+            if (x >= getWidth()) {
+                break;
+            }
+        }
+    }
+
+    // Rebuilt only when tags are added or the font changes
+    private Chip[] chipsFor(Graphics2D g2) {
+        FontRenderContext context = g2.getFontRenderContext();
+        if (chips.length == tagRegistry.size() && tableFont == chipBaseFont && context.equals(chipContext)) {
+            return chips;
+        }
+        Font font = tableFont.deriveFont(Font.BOLD);
+        TagRegistry.Tag[] all = tagRegistry.all();
+        Chip[] built = new Chip[all.length];
+        for (TagRegistry.Tag tag : all) {
+            built[tag.id()] = new Chip(tag, font, context);
+        }
+        chips = built;
+        chipBaseFont = tableFont;
+        chipContext = context;
+        return chips;
+    }
+
+    // The table paints renderers without adding them to a hierarchy; skip the work
+    // DefaultTableCellRenderer skips too
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint(Rectangle r) {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+
+    @Override
+    public void firePropertyChange(String propertyName, boolean oldValue, boolean newValue) {
+    }
+
+    private static final class Chip {
+        final GlyphVector glyphs;
+        final Color color;
+        final Color selectedOutline;
+        final int width;
+        final int height;
+        final int ascent;
+
+        Chip(TagRegistry.Tag tag, Font font, FontRenderContext context) {
+            glyphs = font.createGlyphVector(context, tag.name());
+            LineMetrics metrics = font.getLineMetrics(tag.name(), context);
+            color = tag.color();
+            selectedOutline = Color.WHITE;
+            ascent = (int) Math.ceil(metrics.getAscent());
+            width = (int) Math.ceil(glyphs.getLogicalBounds().getWidth()) + PAD_X * 2;
+            height = ascent + (int) Math.ceil(metrics.getDescent()) + PAD_Y * 2;
+        }
+    }
+}
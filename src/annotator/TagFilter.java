@@ -0,0 +1,189 @@
+package annotator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Tag combination filter such as "SQLi & !Scanned" or "(XSS | SQLi) & !Need to Scan".
+// & binds tighter than |, ! negates, and tag names may contain spaces. Evaluating the filter
+// is a handful of bitmap operations over the per-tag row bitmaps, never a walk over the rows.
+public class TagFilter {
+    private final Node root;
+
+    private TagFilter(Node root) {
+        this.root = root;
+    }
+
+    // Throws IllegalArgumentException with a message fit for the user if the filter is invalid
+    public static TagFilter parse(String expression, TagRegistry registry) {
+        Parser parser = new Parser(expression, registry);
+        Node root = parser.parseOr();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.pos) + "'");
+        }
+        return new TagFilter(root);
+    }
+
+    // rowsByTag[id] holds the rows carrying tag id; rowCount bounds negation
+    public RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount) {
+        return root.evaluate(rowsByTag, rowCount);
+    }
+
+    // Whether a single row with these tags passes, for rows whose tags just changed
+    public boolean matches(int tags) {
+        return root.matches(tags);
+    }
+
+    private interface Node {
+        RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount);
+
+        boolean matches(int tags);
+    }
+
+    private record TagNode(int id) implements Node {
+        public RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount) {
+            return rowsByTag[id];
+        }
+
+        public boolean matches(int tags) {
+            return (tags & (1 << id)) != 0;
+        }
+    }
+
+    private record NotNode(Node inner) implements Node {
+        public RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount) {
+            return RowBitmap.range(rowCount).andNot(inner.evaluate(rowsByTag, rowCount));
+        }
+
+        public boolean matches(int tags) {
+            return !inner.matches(tags);
+        }
+    }
+
+    private record AndNode(List<Node> operands) implements Node {
+        public RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount) {
+            RowBitmap result = null;
+            List<Node> negated = new ArrayList<>();
+            for (Node operand : operands) {
+                if (operand instanceof NotNode) {
+                    negated.add(((NotNode) operand).inner());
+                } else {
+                    RowBitmap rows = operand.evaluate(rowsByTag, rowCount);
+                    result = result == null ? rows : result.and(rows);
+                }
+            }
+            if (result == null) {
+                result = RowBitmap.range(rowCount);
+            }
+            // A & !B is A minus B, no need to build the complement of B
+            for (Node operand : negated) {
+                result = result.andNot(operand.evaluate(rowsByTag, rowCount));
+            }
+            return result;
+        }
+
+        public boolean matches(int tags) {
+            for (Node operand : operands) {
+                if (!operand.matches(tags)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private record OrNode(List<Node> operands) implements Node {
+        public RowBitmap evaluate(RowBitmap[] rowsByTag, int rowCount) {
+            RowBitmap result = new RowBitmap();
+            for (Node operand : operands) {
+                result = result.or(operand.evaluate(rowsByTag, rowCount));
+            }
+            return result;
+        }
+
+        public boolean matches(int tags) {
+            for (Node operand : operands) {
+                if (operand.matches(tags)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private final TagRegistry registry;
+        private int pos;
+
+        Parser(String expression, TagRegistry registry) {
+            this.registry = registry;
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < expression.length(); i++) {
+                char c = expression.charAt(i);
+                if (c == '&' || c == '|' || c == '!' || c == '(' || c == ')') {
+                    flushName(name);
+                    tokens.add(String.valueOf(c));
+                } else {
+                    name.append(c);
+                }
+            }
+            flushName(name);
+        }
+
+        private void flushName(StringBuilder name) {
+            String trimmed = name.toString().trim();
+            if (!trimmed.isEmpty()) {
+                tokens.add(trimmed);
+            }
+            name.setLength(0);
+        }
+
+        Node parseOr() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (accept("|")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new OrNode(operands);
+        }
+
+        Node parseAnd() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseFactor());
+            while (accept("&")) {
+                operands.add(parseFactor());
+            }
+            return operands.size() == 1 ? operands.get(0) : new AndNode(operands);
+        }
+
+        Node parseFactor() {
+            if (accept("!")) {
+                return new NotNode(parseFactor());
+            }
+            if (accept("(")) {
+                Node inner = parseOr();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')'");
+                }
+                return inner;
+            }
+            if (pos >= tokens.size()) {
+                throw new IllegalArgumentException("Expected a tag name");
+            }
+            String token = tokens.get(pos++);
+            TagRegistry.Tag tag = registry.get(token);
+            if (tag == null) {
+                throw new IllegalArgumentException("Unknown tag '" + token + "'");
+            }
+            return new TagNode(tag.id());
+        }
+
+        private boolean accept(String token) {
+            if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package annotator;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tags known to the extension. Each tag gets a small integer id, which is its bit in the store's
+// tag masks, and a display color. The built-in tags always come first so their ids never move;
+// custom tags are appended and never removed, so ids stay stable for saved state.
+// Reads are lock-free and safe from any thread; adding a tag is synchronized.
+public class TagRegistry {
+    // Bit 31 of the mask is reserved by the store
+    public static final int MAX_TAGS = 31;
+    public static final int SCANNED_ID = 0;
+    public static final Color DEFAULT_COLOR = new Color(156, 39, 176); // Purple
+
+    private volatile Tag[] tags = new Tag[0];
+    private final Map<String, Tag> byName = new ConcurrentHashMap<>();
+    private volatile Runnable changeListener = () -> { };
+
+    public TagRegistry() {
+        add(AnnotationStore.SCANNED_TAG, new Color(76, 175, 80));  // Green
+        add("Param Miner", new Color(33, 150, 243));               // Blue
+        add("XSS", new Color(244, 67, 54));                        // Red
+        add("SQLi", new Color(255, 152, 0));                       // Orange
+        add("Need to Scan", DEFAULT_COLOR);
+    }
+
+    public static final class Tag {
+        private final int id;
+        private final String name;
+        private final Color color;
+
+        private Tag(int id, String name, Color color) {
+            this.id = id;
+            this.name = name;
+            this.color = color;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public int bit() {
+            return 1 << id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Color color() {
+            return color;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Returns the existing tag if the name is already registered
+    public synchronized Tag add(String name, Color color) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("Tag name can't be empty");
+        }
+        Tag existing = byName.get(trimmed);
+        if (existing != null) {
+            return existing;
+        }
+        if (tags.length == MAX_TAGS) {
+            throw new IllegalStateException("No more than " + MAX_TAGS + " tags are supported");
+        }
+        Tag tag = new Tag(tags.length, trimmed, color);
+        Tag[] next = Arrays.copyOf(tags, tags.length + 1);
+        next[tag.id] = tag;
+        byName.put(trimmed, tag);
+        tags = next;
+        changeListener.run();
+        return tag;
+    }
+
+    public Tag get(String name) {
+        return byName.get(name);
+    }
+
+    public Tag get(int id) {
+        Tag[] current = tags;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    // Bit for a tag name, 0 for names we don't know
+    public int bit(String name) {
+        Tag tag = byName.get(name);
+        return tag == null ? 0 : tag.bit();
+    }
+
+    public int size() {
+        return tags.length;
+    }
+
+    public Tag[] all() {
+        return tags.clone();
+    }
+
+    public List<String> names(int mask) {
+        Tag[] current = tags;
+        List<String> names = new ArrayList<>();
+        for (Tag tag : current) {
+            if ((mask & tag.bit()) != 0) {
+                names.add(tag.name);
+            }
+        }
+        return names;
+    }
+
+    // Called after a tag is added, on the thread that added it
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    // One tag per line, "name<TAB>rrggbb", in id order
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Tag tag : tags) {
+            sb.append(tag.name).append('\t').append(String.format("%06x", tag.color.getRGB() & 0xFFFFFF)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Adds the saved tags in order. The built-in ones are already there, so ids line up with the
+    // saved order as long as the saved state came from this registry.
+    public void load(String serialized) {
+        for (String line : serialized.split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                continue;
+            }
+            try {
+                add(line.substring(0, tab), new Color(Integer.parseInt(line.substring(tab + 1).trim(), 16)));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Skip lines we can't use
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package annotator;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.awt.Color;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Tags URLs with the tools that sent requests to them. Burp's HTTP handler threads only key the
+// request and offer (key, tool) into a bounded lock-free ring, so a queued event doesn't hold on
+// to the request's bytes; when the ring is full the event is dropped and counted rather than
+// making Burp wait. One background thread drains the ring in batches, merges repeats (an
+// Intruder attack is thousands of requests to a handful of URLs), and only checks scope and
+// touches the store for URLs missing one of the tags.
+public class ToolTrafficRecorder {
+    // Proxy would tag every URL browsed and Scanner is already covered by the scan check
+    private static final Map<ToolType, String> TOOL_TAGS = new EnumMap<>(Map.of(
+        ToolType.REPEATER, "Repeater",
+        ToolType.INTRUDER, "Intruder",
+        ToolType.EXTENSIONS, "Extensions"));
+    private static final ToolType[] TOOLS = ToolType.values();
+    private static final Color TOOL_TAG_COLOR = new Color(96, 125, 139); // Blue grey
+    private static final int CAPACITY = 1 << 13;
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MontoyaApi api;
+    private final AnnotationStore store;
+    // Tag bit per tool ordinal, 0 for tools we don't record
+    private final int[] toolBits = new int[TOOLS.length];
+
+    // Multi-producer single-consumer ring (Vyukov's bounded queue). A slot's sequence says
+    // whose turn it is: equal to the position when free for that producer, position + 1 once
+    // filled for the consumer. The sequence write publishes the plain array writes.
+    private final UrlKey[] keys = new UrlKey[CAPACITY];
+    private final int[] tools = new int[CAPACITY];
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final LongAdder seen;
+    private final LongAdder dropped;
+    private final LongAdder tagged;
+    private volatile boolean running;
+    private Thread consumer;
+
+    public ToolTrafficRecorder(MontoyaApi api, AnnotationStore store, Metrics metrics) {
+        this.api = api;
+        this.store = store;
+        for (Map.Entry<ToolType, String> entry : TOOL_TAGS.entrySet()) {
+            try {
+                toolBits[entry.getKey().ordinal()] = store.tagRegistry().add(entry.getValue(), TOOL_TAG_COLOR).bit();
+            } catch (IllegalStateException e) {
+                // Every tag slot is taken; that tool just isn't recorded
+                api.logging().logToError("Not recording " + entry.getValue() + " traffic: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        this.seen = metrics.counter("tool requests");
+        this.dropped = metrics.counter("tool dropped");
+        this.tagged = metrics.counter("tool tags");
+        // head is read without a fence here, which is fine for a gauge
+        metrics.gauge("Tool queue", Metrics.Unit.COUNT, () -> Math.max(0, tail.get() - head));
+    }
+
+    // Called on Burp's HTTP threads: never blocks, returns false if the event was dropped
+    public boolean offer(HttpRequest request, ToolType tool) {
+        if (tool == null || toolBits[tool.ordinal()] == 0) {
+            return true;
+        }
+        seen.increment();
+        UrlKey key;
+        try {
+            key = store.keyFor(request);
+        } catch (RuntimeException e) {
+            // A request we can't key isn't worth holding Burp up for
+            return true;
+        }
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & (CAPACITY - 1);
+            long diff = sequences.get(slot) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    keys[slot] = key;
+                    tools[slot] = tool.ordinal();
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                // The consumer hasn't freed this slot since the last lap, so the ring is full
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this::consume, "Annotator tool traffic");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void consume() {
+        Map<UrlKey, Integer> batch = new HashMap<>();
+        while (running) {
+            int taken = drainInto(batch);
+            if (taken == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            for (Map.Entry<UrlKey, Integer> entry : batch.entrySet()) {
+                UrlKey key = entry.getKey();
+                int missing = entry.getValue() & ~store.tags(key);
+                if (missing != 0 && api.scope().isInScope(key.url()) && store.addTags(key, missing)) {
+                    tagged.add(Integer.bitCount(missing));
+                    recordHistory(key, missing);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void recordHistory(UrlKey key, int bits) {
+        long now = System.currentTimeMillis() / 1000;
+        for (int tool = 0; tool < toolBits.length; tool++) {
+            if ((toolBits[tool] & bits) != 0) {
+                store.history().recordTag(key.hash(), TOOLS[tool], now);
+            }
+        }
+    }
+
+    // Takes up to MAX_BATCH events, merging them into one tag mask per key
+    private int drainInto(Map<UrlKey, Integer> batch) {
+        int taken = 0;
+        while (taken < MAX_BATCH) {
+            int slot = (int) head & (CAPACITY - 1);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            UrlKey key = keys[slot];
+            int bits = toolBits[tools[slot]];
+            keys[slot] = null;
+            sequences.lazySet(slot, head + CAPACITY);
+            head++;
+            taken++;
+            batch.merge(key, bits, (a, b) -> a | b);
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,339 @@
+package annotator;
+
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// Canonical key for a URL: scheme://host[:port]/path with default ports, query and fragment dropped.
+// Keys are built straight from the request's components into a per-thread buffer, and carry a
+// precomputed 64-bit hash so lookups don't have to compare strings unless the hashes match.
+//
+// Endpoint keys add the method and the sorted set of parameter names (query, body, JSON, XML)
+// to the hash. Keys are identified by the 64-bit hash alone, so comparing them never touches
+// the strings; the display value is only built when something asks for it.
+public final class UrlKey {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    private static final String[] NO_PARAMS = new String[0];
+    // Issue requests whose body had to go carry the endpoint's parameter names here instead,
+    // url-encoded and comma separated, so their key doesn't need the body
+    static final String PARAMS_HEADER = "X-Annotator-Params";
+
+    private final String url;
+    private final long hash;
+    private final String method;
+    private final String[] paramNames;
+    private String value;
+
+    private UrlKey(String url, long hash, String method, String[] paramNames) {
+        this.url = url;
+        this.hash = hash;
+        this.method = method;
+        this.paramNames = paramNames;
+        this.value = method == null ? url : null;
+    }
+
+    // Key for the request in the given mode
+    public static UrlKey of(HttpRequest request, KeyMode mode) {
+        return mode == KeyMode.ENDPOINT ? endpoint(request) : of(request);
+    }
+
+    public static UrlKey endpoint(HttpRequest request) {
+        UrlKey urlKey = of(request);
+        String method = request.method().toUpperCase();
+        String[] names = paramNames(request);
+        return new UrlKey(urlKey.url, endpointHash(urlKey.hash, method, names), method, names);
+    }
+
+    // Endpoint key from names recorded by paramsHeader rather than the request's own parameters
+    static UrlKey endpoint(HttpRequest request, String recordedNames) {
+        UrlKey urlKey = of(request);
+        String method = request.method().toUpperCase();
+        String[] names = NO_PARAMS;
+        if (!recordedNames.isEmpty()) {
+            names = recordedNames.split(",", -1);
+            for (int i = 0; i < names.length; i++) {
+                names[i] = URLDecoder.decode(names[i], StandardCharsets.UTF_8);
+            }
+        }
+        return new UrlKey(urlKey.url, endpointHash(urlKey.hash, method, names), method, names);
+    }
+
+    // Value for PARAMS_HEADER that gives the request's endpoint key back
+    static String paramsHeader(HttpRequest request) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : paramNames(request)) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    // Sorted, distinct names of the parameters that identify an endpoint
+    private static String[] paramNames(HttpRequest request) {
+        List<ParsedHttpParameter> parameters = request.parameters();
+        String[] names = new String[parameters.size()];
+        int count = 0;
+        for (ParsedHttpParameter parameter : parameters) {
+            HttpParameterType type = parameter.type();
+            if (type != HttpParameterType.COOKIE && type != HttpParameterType.MULTIPART_ATTRIBUTE) {
+                names[count++] = parameter.name();
+            }
+        }
+        Arrays.sort(names, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || !names[i].equals(names[unique - 1])) {
+                names[unique++] = names[i];
+            }
+        }
+        return unique == 0 ? NO_PARAMS : Arrays.copyOf(names, unique);
+    }
+
+    private static long endpointHash(long urlHash, String method, String[] names) {
+        long h = mix(urlHash, method);
+        for (String name : names) {
+            // Separator so {ab} and {a, b} hash differently
+            h = (mix(h, name) ^ 0x1f) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    public static UrlKey of(HttpRequest request) {
+        HttpService service = request.httpService();
+        String path = request.pathWithoutQuery();
+        if (service == null || path == null || !path.startsWith("/")) {
+            // Requests without a service or in absolute form, fall back to the full URL
+            return of(request.url());
+        }
+        return of(service.secure(), service.host(), service.port(), path);
+    }
+
+    // Same as of(request, mode).hash(), without building the key's strings
+    public static long hashOf(HttpRequest request, KeyMode mode) {
+        long h = hashOf(request);
+        return mode == KeyMode.ENDPOINT
+            ? endpointHash(h, request.method().toUpperCase(), paramNames(request)) : h;
+    }
+
+    // Same as of(request).hash(), without building the key's string
+    public static long hashOf(HttpRequest request) {
+        HttpService service = request.httpService();
+        String path = request.pathWithoutQuery();
+        if (service == null || path == null || !path.startsWith("/")) {
+            return of(request.url()).hash;
+        }
+        boolean secure = service.secure();
+        long h = mix(FNV_OFFSET, secure ? "https://" : "http://");
+        String host = service.host();
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            h = (h ^ (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c)) * FNV_PRIME;
+        }
+        int port = service.port();
+        if (port != -1 && port != (secure ? 443 : 80)) {
+            h = mixNumber((h ^ ':') * FNV_PRIME, port);
+        }
+        // The path starts with '/', so it's never empty here
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '?' || c == '#') {
+                break;
+            }
+            h = (h ^ c) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    public static UrlKey of(boolean secure, String host, int port, String path) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append(secure ? "https://" : "http://");
+        appendLowerCase(sb, host, 0, host.length());
+        if (port != -1 && port != (secure ? 443 : 80)) {
+            sb.append(':').append(port);
+        }
+        appendPath(sb, path, 0, path.length());
+        return build(sb);
+    }
+
+    // Parses an absolute URL string without going through java.net.URL
+    public static UrlKey of(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            throw new IllegalArgumentException("Not an absolute URL: " + url);
+        }
+        boolean secure = url.regionMatches(true, 0, "https", 0, schemeEnd) && schemeEnd == 5;
+        boolean plain = url.regionMatches(true, 0, "http", 0, schemeEnd) && schemeEnd == 4;
+        if (!secure && !plain) {
+            throw new IllegalArgumentException("Unsupported scheme: " + url);
+        }
+
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < url.length()) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            authorityEnd++;
+        }
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+        if (hostStart < authorityStart) {
+            hostStart = authorityStart;
+        }
+        // Skip past an IPv6 literal before looking for the port
+        int portSearchFrom = hostStart;
+        if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+            int close = url.indexOf(']', hostStart);
+            portSearchFrom = close < 0 ? authorityEnd : close;
+        }
+        int colon = url.indexOf(':', portSearchFrom);
+        int hostEnd = colon >= 0 && colon < authorityEnd ? colon : authorityEnd;
+        int port = -1;
+        if (hostEnd < authorityEnd && hostEnd + 1 < authorityEnd) {
+            port = Integer.parseInt(url, hostEnd + 1, authorityEnd, 10);
+        }
+
+        int pathEnd = authorityEnd;
+        while (pathEnd < url.length()) {
+            char c = url.charAt(pathEnd);
+            if (c == '?' || c == '#') {
+                break;
+            }
+            pathEnd++;
+        }
+
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append(secure ? "https://" : "http://");
+        appendLowerCase(sb, url, hostStart, hostEnd);
+        if (port != -1 && port != (secure ? 443 : 80)) {
+            sb.append(':').append(port);
+        }
+        appendPath(sb, url, authorityEnd, pathEnd);
+        return build(sb);
+    }
+
+    private static void appendLowerCase(StringBuilder sb, String s, int from, int to) {
+        int firstUpper = from;
+        while (firstUpper < to && !(s.charAt(firstUpper) >= 'A' && s.charAt(firstUpper) <= 'Z')) {
+            firstUpper++;
+        }
+        sb.append(s, from, firstUpper);
+        for (int i = firstUpper; i < to; i++) {
+            char c = s.charAt(i);
+            sb.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+    }
+
+    private static void appendPath(StringBuilder sb, String s, int from, int to) {
+        int end = to;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        if (end == from) {
+            sb.append('/');
+        } else {
+            sb.append(s, from, end);
+        }
+    }
+
+    // Rebuilds a saved key from its hash and display value, so it matches the live key exactly
+    public static UrlKey restore(long hash, String value) {
+        int space = value.indexOf(' ');
+        if (space < 0 || value.startsWith("http")) {
+            return new UrlKey(value, hash, null, null);
+        }
+        int paramsStart = value.indexOf(" {", space + 1);
+        String url = value.substring(space + 1, paramsStart < 0 ? value.length() : paramsStart);
+        UrlKey key = new UrlKey(url, hash, value.substring(0, space), NO_PARAMS);
+        key.value = value;
+        return key;
+    }
+
+    private static UrlKey build(StringBuilder sb) {
+        String url = sb.toString();
+        return new UrlKey(url, mix(FNV_OFFSET, url), null, null);
+    }
+
+    private static long mix(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    // Mixes the decimal digits of n, as StringBuilder.append(int) would write them
+    private static long mixNumber(long h, int n) {
+        if (n < 0) {
+            h = (h ^ '-') * FNV_PRIME;
+            return n == Integer.MIN_VALUE ? mix(h, "2147483648") : mixNumber(h, -n);
+        }
+        if (n >= 10) {
+            h = mixNumber(h, n / 10);
+        }
+        return (h ^ ('0' + n % 10)) * FNV_PRIME;
+    }
+
+    // Display form, "https://host/path" or "POST https://host/path {a, b}" for endpoints
+    public String value() {
+        String v = value;
+        if (v == null) {
+            StringBuilder sb = new StringBuilder(method.length() + url.length() + 16);
+            sb.append(method).append(' ').append(url);
+            if (paramNames.length > 0) {
+                sb.append(" {").append(String.join(", ", paramNames)).append('}');
+            }
+            value = v = sb.toString();
+        }
+        return v;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public boolean isEndpoint() {
+        return method != null;
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UrlKey)) {
+            return false;
+        }
+        return hash == ((UrlKey) o).hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return value();
+    }
+}
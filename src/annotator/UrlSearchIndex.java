@@ -0,0 +1,111 @@
+package annotator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// Search index over the table's rows. Every lower-cased URL is split into trigrams, each with a
+// bitmap of the rows containing it, and every host has a bitmap of its rows. A substring query
+// intersects the bitmaps of its trigrams and only checks the surviving candidates, so lookups
+// stay cheap as rows keep arriving. Rows are added incrementally and never removed.
+// Not thread-safe.
+public class UrlSearchIndex {
+    private final Map<Long, RowBitmap> trigrams = new HashMap<>();
+    private final Map<String, RowBitmap> hosts = new HashMap<>();
+    // Lower-cased text of a row, for checking trigram candidates
+    private final IntFunction<String> rowText;
+    private int rowCount;
+
+    public UrlSearchIndex(IntFunction<String> rowText) {
+        this.rowText = rowText;
+    }
+
+    // text is the row's lower-cased display text, host its lower-cased host
+    public void add(int row, String text, String host) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.computeIfAbsent(trigram(text, i), k -> new RowBitmap()).add(row);
+        }
+        hosts.computeIfAbsent(host, k -> new RowBitmap()).add(row);
+        rowCount = Math.max(rowCount, row + 1);
+    }
+
+    public void clear() {
+        trigrams.clear();
+        hosts.clear();
+        rowCount = 0;
+    }
+
+    // Rows matching every whitespace-separated term. "host:foo" matches rows whose host contains
+    // foo, any other term is a case-insensitive substring of the row text.
+    public RowBitmap search(String query) {
+        RowBitmap result = null;
+        for (String term : terms(query)) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            RowBitmap rows = term.startsWith("host:") ? hostRows(term.substring(5)) : substringRows(term);
+            result = result == null ? rows : result.and(rows);
+        }
+        return result == null ? RowBitmap.range(rowCount) : result;
+    }
+
+    // A query split the way search reads it
+    public static String[] terms(String query) {
+        return query.toLowerCase().trim().split("\\s+");
+    }
+
+    // Whether a row with this text and host is one search would return for the terms, so rows
+    // arriving while a search is showing can be checked on their own instead of searching again
+    public static boolean matches(String[] terms, String text, String host) {
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (!(term.startsWith("host:") ? host.contains(term.substring(5)) : text.contains(term))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RowBitmap hostRows(String hostPart) {
+        RowBitmap rows = new RowBitmap();
+        for (Map.Entry<String, RowBitmap> entry : hosts.entrySet()) {
+            if (entry.getKey().contains(hostPart)) {
+                rows = rows.or(entry.getValue());
+            }
+        }
+        return rows;
+    }
+
+    private RowBitmap substringRows(String term) {
+        RowBitmap candidates;
+        if (term.length() < 3) {
+            candidates = RowBitmap.range(rowCount);
+        } else {
+            candidates = null;
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                RowBitmap rows = trigrams.get(trigram(term, i));
+                if (rows == null) {
+                    return new RowBitmap();
+                }
+                candidates = candidates == null ? rows : candidates.and(rows);
+            }
+            // A single trigram is exact, longer terms need checking
+            if (term.length() == 3) {
+                return candidates.or(new RowBitmap());
+            }
+        }
+        RowBitmap matches = new RowBitmap();
+        candidates.forEach(row -> {
+            if (rowText.apply(row).contains(term)) {
+                matches.add(row);
+            }
+        });
+        return matches;
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
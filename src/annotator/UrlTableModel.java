@@ -0,0 +1,508 @@
+package annotator;
+
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Table model behind ScannedUrlsPanel, fed from the store's pending changes on each flush.
+// Rows are only ever appended, so each entry keeps its row position and the
+// index gives constant-time lookups no matter how big the table gets.
+// Each tag also has a bitmap of the rows carrying it, for the tag filter, and the search
+// index has bitmaps per trigram and host. The table sees a view: the rows passing both
+// filters, in URL order. Both the URL order and the view are kept up to date in place:
+// a flush that only changes tags repaints those rows, and a few rows coming or going are
+// spliced in with row insert/delete events. Only a big batch, or a filter or order change,
+// rebuilds the view, and even then it's a merge or one pass over the URL order, never a sort.
+// Only touched on the EDT.
+public class UrlTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    // Up to this many rows entering or leaving the view get their own events; more than
+    // that and one data-changed event is cheaper for the table
+    private static final int MAX_SPLICES = 64;
+
+    private final AnnotationStore store;
+    private final TagRegistry tagRegistry;
+    private final CoverageTree coverage;
+    // Set once the table exists; edits in progress hold view changes back, and big view
+    // changes keep its selection
+    private JTable table;
+    private TagFilter tagFilter;
+    // Read by the stats gauge off the EDT
+    private volatile int rowCount;
+
+    private final List<UrlEntry> urls = new ArrayList<>();
+    private final Map<UrlKey, UrlEntry> index = new HashMap<>();
+    private final RowBitmap[] rowsByTag = new RowBitmap[TagRegistry.MAX_TAGS];
+    private final UrlSearchIndex searchIndex = new UrlSearchIndex(row -> urls.get(row).lowerUrl);
+    private final String[] columnNames = {"URL", "Tags"};
+    private final RowOrder urlOrder = this::compareRows;
+    private final RowOrder viewOrder = (a, b) -> this.ascending ? compareRows(a, b) : compareRows(b, a);
+    // All rows in ascending URL order
+    private int[] sorted = new int[16];
+    private int sortedSize;
+    // Rows shown, in view order
+    private int[] view = new int[16];
+    private int viewSize;
+    // Per flush scratch lists of rows, kept to save allocating them every time
+    private final RowList added = new RowList();
+    private final RowList entering = new RowList();
+    private final RowList leaving = new RowList();
+    private final RowList updated = new RowList();
+    private String search = "";
+    private String[] searchTerms;
+    private RowBitmap searchRows;
+    private boolean ascending = true;
+    private boolean viewStale;
+
+    public UrlTableModel(AnnotationStore store, CoverageTree coverage) {
+        this.store = store;
+        this.tagRegistry = store.tagRegistry();
+        this.coverage = coverage;
+        for (int i = 0; i < rowsByTag.length; i++) {
+            rowsByTag[i] = new RowBitmap();
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return viewSize;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        UrlEntry entry = entryAt(rowIndex);
+        return columnIndex == 0 ? entry.url : entry;
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return columnIndex == 1; // Only the tags column is editable
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return columnIndex == 0 ? String.class : UrlEntry.class;
+    }
+
+    public UrlEntry entryAt(int viewRow) {
+        return urls.get(view[viewRow]);
+    }
+
+    // View position of the row, -1 if it's hidden. The view is in URL order, so this is a
+    // binary search.
+    public int viewRowOf(int row) {
+        int i = insertionPoint(view, viewSize, row, viewOrder);
+        return i < viewSize && view[i] == row ? i : -1;
+    }
+
+    public void setTable(JTable table) {
+        this.table = table;
+    }
+
+    // Rows in the table, shown or not; safe to call from any thread
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public void setTagFilter(TagFilter tagFilter) {
+        this.tagFilter = tagFilter;
+        refreshView();
+    }
+
+    public void setAscending(boolean ascending) {
+        this.ascending = ascending;
+        refreshView();
+    }
+
+    public void setSearch(String search) {
+        this.search = search;
+        searchTerms = UrlSearchIndex.terms(search);
+        searchRows = search.isBlank() ? null : searchIndex.search(search);
+        refreshView();
+    }
+
+    public void clear() {
+        urls.clear();
+        rowCount = 0;
+        index.clear();
+        for (int i = 0; i < rowsByTag.length; i++) {
+            rowsByTag[i] = new RowBitmap();
+        }
+        searchIndex.clear();
+        coverage.clear();
+        sorted = new int[16];
+        sortedSize = 0;
+        searchRows = search.isBlank() ? null : new RowBitmap();
+        refreshView();
+    }
+
+    private void updateTagRows(int row, int oldTags, int newTags) {
+        int changed = oldTags ^ newTags;
+        while (changed != 0) {
+            int id = Integer.numberOfTrailingZeros(changed);
+            if ((newTags & (1 << id)) != 0) {
+                rowsByTag[id].add(row);
+            } else {
+                rowsByTag[id].remove(row);
+            }
+            changed &= changed - 1;
+        }
+    }
+
+    public void apply(List<UrlKey> batch) {
+        added.clear();
+        entering.clear();
+        leaving.clear();
+        updated.clear();
+        TagFilter filter = tagFilter;
+        for (UrlKey key : batch) {
+            if (!store.contains(key)) {
+                // Left over from before the store was cleared
+                continue;
+            }
+            // Take a snapshot so the table only ever sees whole updates
+            int tags = store.tags(key);
+            UrlEntry entry = index.get(key);
+            if (entry == null) {
+                entry = new UrlEntry(key, urls.size());
+                urls.add(entry);
+                index.put(entry.key, entry);
+                searchIndex.add(entry.row, entry.lowerUrl, hostOf(key.url()));
+                entry.node = coverage.add(key.url(), tags);
+                updateTagRows(entry.row, 0, tags);
+                entry.tags = tags;
+                added.add(entry.row);
+                continue;
+            }
+            int oldTags = entry.tags;
+            if (oldTags == tags) {
+                continue;
+            }
+            coverage.updateTags(entry.node, oldTags, tags);
+            updateTagRows(entry.row, oldTags, tags);
+            entry.tags = tags;
+            // The URL doesn't change, so only the tag filter can show or hide the row
+            if (searchRows != null && !searchRows.contains(entry.row)) {
+                continue;
+            }
+            boolean was = filter == null || filter.matches(oldTags);
+            boolean now = filter == null || filter.matches(tags);
+            if (was && now) {
+                updated.add(entry.row);
+            } else if (was) {
+                leaving.add(entry.row);
+            } else if (now) {
+                entering.add(entry.row);
+            }
+        }
+        coverage.fireChanges();
+        rowCount = urls.size();
+        if (added.size > 0) {
+            sortRows(added.rows, added.size, urlOrder);
+            sorted = mergeRows(sorted, sortedSize, added.rows, added.size, urlOrder);
+            sortedSize += added.size;
+            for (int i = 0; i < added.size; i++) {
+                int row = added.rows[i];
+                // New rows are checked against the search on their own rather than running it again
+                if (searchRows != null) {
+                    UrlEntry entry = urls.get(row);
+                    if (UrlSearchIndex.matches(searchTerms, entry.lowerUrl, hostOf(entry.key.url()))) {
+                        searchRows.add(row);
+                    }
+                }
+                if ((filter == null || filter.matches(urls.get(row).tags))
+                        && (searchRows == null || searchRows.contains(row))) {
+                    entering.add(row);
+                }
+            }
+        }
+        updateView();
+    }
+
+    // Applies this flush's entering, leaving and updated rows to the view
+    private void updateView() {
+        if (entering.size + leaving.size > 0) {
+            if (viewStale || (table != null && table.isEditing())) {
+                // Moving rows under an edit in progress would cancel it; catch up afterwards
+                viewStale = true;
+            } else if (entering.size + leaving.size > MAX_SPLICES) {
+                mergeView();
+                return;
+            } else {
+                spliceView();
+            }
+        }
+        if (viewStale || updated.size > MAX_SPLICES) {
+            // Repainting everything costs the table no more than repainting what's on screen
+            if (updated.size > 0 && viewSize > 0) {
+                fireTableRowsUpdated(0, viewSize - 1);
+            }
+            return;
+        }
+        for (int i = 0; i < updated.size; i++) {
+            int viewRow = viewRowOf(updated.rows[i]);
+            if (viewRow >= 0) {
+                fireTableRowsUpdated(viewRow, viewRow);
+            }
+        }
+    }
+
+    // A few rows in or out, each with its own event so the table keeps its selection and scroll
+    private void spliceView() {
+        for (int i = 0; i < leaving.size; i++) {
+            int viewRow = viewRowOf(leaving.rows[i]);
+            if (viewRow >= 0) {
+                System.arraycopy(view, viewRow + 1, view, viewRow, viewSize - viewRow - 1);
+                viewSize--;
+                fireTableRowsDeleted(viewRow, viewRow);
+            }
+        }
+        for (int i = 0; i < entering.size; i++) {
+            int row = entering.rows[i];
+            int viewRow = insertionPoint(view, viewSize, row, viewOrder);
+            if (viewSize == view.length) {
+                view = Arrays.copyOf(view, view.length * 2);
+            }
+            System.arraycopy(view, viewRow, view, viewRow + 1, viewSize - viewRow);
+            view[viewRow] = row;
+            viewSize++;
+            fireTableRowsInserted(viewRow, viewRow);
+        }
+    }
+
+    // Lots of rows in or out: drop the leaving ones and merge the entering ones in, in place
+    private void mergeView() {
+        List<UrlEntry> selected = table != null ? selectedEntries() : List.of();
+        if (leaving.size > 0) {
+            RowBitmap gone = new RowBitmap();
+            for (int i = 0; i < leaving.size; i++) {
+                gone.add(leaving.rows[i]);
+            }
+            int kept = 0;
+            for (int i = 0; i < viewSize; i++) {
+                if (!gone.contains(view[i])) {
+                    view[kept++] = view[i];
+                }
+            }
+            viewSize = kept;
+        }
+        sortRows(entering.rows, entering.size, viewOrder);
+        view = mergeRows(view, viewSize, entering.rows, entering.size, viewOrder);
+        viewSize += entering.size;
+        fireTableDataChanged();
+        if (!selected.isEmpty()) {
+            restoreSelection(selected);
+        }
+    }
+
+    // Rebuilds the view from the URL order, for filter and order changes
+    public void refreshView() {
+        // Rebuilding the view would cancel an edit in progress, so wait for it to finish
+        if (table != null && table.isEditing()) {
+            viewStale = true;
+            return;
+        }
+        viewStale = false;
+        RowBitmap tagRows = tagFilter == null ? null : tagFilter.evaluate(rowsByTag, urls.size());
+        List<UrlEntry> selected = table != null ? selectedEntries() : List.of();
+        if (view.length < sortedSize) {
+            view = new int[sorted.length];
+        }
+        int count = 0;
+        for (int i = 0; i < sortedSize; i++) {
+            int row = sorted[ascending ? i : sortedSize - 1 - i];
+            if ((tagRows == null || tagRows.contains(row)) && (searchRows == null || searchRows.contains(row))) {
+                view[count++] = row;
+            }
+        }
+        viewSize = count;
+        fireTableDataChanged();
+        if (!selected.isEmpty()) {
+            restoreSelection(selected);
+        }
+    }
+
+    public void refreshIfStale() {
+        if (viewStale) {
+            refreshView();
+        }
+    }
+
+    // URL order, with the row as a tie-breaker since endpoints can share a URL
+    private int compareRows(int a, int b) {
+        int c = urls.get(a).url.compareTo(urls.get(b).url);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+
+    // Big batches and re-sorts reset the view, so keep the selected entries selected across them
+    private List<UrlEntry> selectedEntries() {
+        List<UrlEntry> selected = new ArrayList<>();
+        for (int viewRow : table.getSelectedRows()) {
+            selected.add(entryAt(viewRow));
+        }
+        return selected;
+    }
+
+    private void restoreSelection(List<UrlEntry> selected) {
+        ListSelectionModel selection = table.getSelectionModel();
+        selection.setValueIsAdjusting(true);
+        for (UrlEntry entry : selected) {
+            int viewRow = viewRowOf(entry.row);
+            if (viewRow >= 0) {
+                selection.addSelectionInterval(viewRow, viewRow);
+            }
+        }
+        selection.setValueIsAdjusting(false);
+    }
+
+    private interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    // Growable list of rows, reused between flushes
+    private static final class RowList {
+        int[] rows = new int[64];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    // First position in the sorted rows whose row doesn't come before row
+    private static int insertionPoint(int[] rows, int size, int row, RowOrder order) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (order.compare(rows[mid], row) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Merges sorted extra rows into the first size rows of target, working back from the end so
+    // nothing gets overwritten. Returns target, or a bigger copy of it if it had no room.
+    private static int[] mergeRows(int[] target, int size, int[] extra, int extraSize, RowOrder order) {
+        if (size + extraSize > target.length) {
+            target = Arrays.copyOf(target, Math.max(size + extraSize, target.length + (target.length >> 1)));
+        }
+        int i = size - 1;
+        int j = extraSize - 1;
+        for (int w = size + extraSize - 1; j >= 0; w--) {
+            if (i >= 0 && order.compare(target[i], extra[j]) > 0) {
+                target[w] = target[i--];
+            } else {
+                target[w] = extra[j--];
+            }
+        }
+        return target;
+    }
+
+    // Merge sort on the first size rows, without boxing them
+    private static void sortRows(int[] rows, int size, RowOrder order) {
+        if (size < 2) {
+            return;
+        }
+        sortRows(rows, new int[size], 0, size, order);
+    }
+
+    private static void sortRows(int[] rows, int[] scratch, int from, int to, RowOrder order) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && order.compare(rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortRows(rows, scratch, from, mid, order);
+        sortRows(rows, scratch, mid, to, order);
+        if (order.compare(rows[mid - 1], rows[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int w = from; w < to; w++) {
+            if (j >= to || (i < mid && order.compare(scratch[i], scratch[j]) <= 0)) {
+                rows[w] = scratch[i++];
+            } else {
+                rows[w] = scratch[j++];
+            }
+        }
+    }
+
+    private static String hostOf(String url) {
+        int start = url.indexOf("://") + 3;
+        int end = url.indexOf('/', start);
+        return url.substring(start, end < 0 ? url.length() : end);
+    }
+
+    // Class to hold URL and the tag mask as of the last flush
+    class UrlEntry implements Comparable<UrlEntry> {
+        final UrlKey key;
+        final String url;
+        final String lowerUrl;
+        final int row;
+        int tags;
+        CoverageTree.Node node;
+
+        UrlEntry(UrlKey key, int row) {
+            this.key = key;
+            this.url = key.value();
+            // Usually the same instance, URLs are mostly lower case already
+            this.lowerUrl = url.toLowerCase();
+            this.row = row;
+        }
+
+        List<String> getAllTags() {
+            return tagRegistry.names(tags);
+        }
+
+        @Override
+        public int compareTo(UrlEntry other) {
+            return this.url.compareTo(other.url);
+        }
+
+        @Override
+        public String toString() {
+            return String.join(", ", getAllTags());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnnotationJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysWhatWasWritten() throws IOException {
+        AnnotationStore store = new AnnotationStore();
+        AnnotationJournal journal = open(store);
+        store.addTag(UrlKey.of("https://example.com/a"), AnnotationStore.SCANNED_TAG);
+        store.addTag(UrlKey.of("https://example.com/b"), AnnotationStore.SCANNED_TAG);
+        store.removeTag(UrlKey.of("https://example.com/b"), AnnotationStore.SCANNED_TAG);
+        store.add(UrlKey.restore(7, "POST https://example.com/c {x}"));
+        journal.close();
+
+        AnnotationStore loaded = new AnnotationStore();
+        open(loaded).close();
+        assertEquals(snapshot(store), snapshot(loaded));
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.isScanned(UrlKey.of("https://example.com/a")));
+    }
+
+    // Enough changes to compact a few times, then more after the last compaction
+    @Test
+    void compactionKeepsTheLatestStateOfEveryKey() throws IOException {
+        AnnotationStore store = new AnnotationStore();
+        AnnotationJournal journal = open(store);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 40_000; i++) {
+                UrlKey key = UrlKey.of("https://example.com/" + i);
+                if ((i + round) % 3 == 0) {
+                    store.removeTag(key, AnnotationStore.SCANNED_TAG);
+                    store.add(key);
+                } else {
+                    store.addTag(key, AnnotationStore.SCANNED_TAG);
+                }
+            }
+        }
+        journal.close();
+        assertTrue(Files.exists(dir.resolve("snapshot.bin")), "never compacted");
+
+        AnnotationStore loaded = new AnnotationStore();
+        open(loaded).close();
+        assertEquals(snapshot(store), snapshot(loaded));
+    }
+
+    @Test
+    void tornRecordAtTheEndIsDropped() throws IOException {
+        AnnotationStore store = new AnnotationStore();
+        AnnotationJournal journal = open(store);
+        store.addTag(UrlKey.of("https://example.com/a"), AnnotationStore.SCANNED_TAG);
+        journal.close();
+        // Half a record, as if Burp died mid-write
+        Files.write(dir.resolve("journal.bin"), new byte[]{0, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+
+        AnnotationStore loaded = new AnnotationStore();
+        journal = open(loaded);
+        loaded.addTag(UrlKey.of("https://example.com/b"), AnnotationStore.SCANNED_TAG);
+        journal.close();
+
+        AnnotationStore reloaded = new AnnotationStore();
+        open(reloaded).close();
+        assertEquals(snapshot(loaded), snapshot(reloaded));
+        assertEquals(2, reloaded.size());
+    }
+
+    // A key mode change can close the journal while its load is still running
+    @Test
+    void closedDuringLoadNeverStartsWriting() throws IOException {
+        AnnotationStore store = new AnnotationStore();
+        AnnotationJournal journal = new AnnotationJournal(dir, message -> { });
+        journal.close();
+        journal.load(store);
+        store.setChangeListener(journal);
+        store.addTag(UrlKey.of("https://example.com/a"), AnnotationStore.SCANNED_TAG);
+        journal.close();
+        assertFalse(Files.exists(dir.resolve("journal.bin")));
+    }
+
+    private AnnotationJournal open(AnnotationStore store) throws IOException {
+        List<String> errors = new ArrayList<>();
+        AnnotationJournal journal = new AnnotationJournal(dir, errors::add);
+        journal.load(store);
+        store.setChangeListener(journal);
+        assertEquals(List.of(), errors);
+        return journal;
+    }
+
+    private static Map<Long, String> snapshot(AnnotationStore store) {
+        Map<Long, String> entries = new HashMap<>();
+        store.forEach((key, tags, timeSeconds) -> entries.put(key.hash(), key.value() + " " + tags));
+        return entries;
+    }
+}
@@ -0,0 +1,295 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnnotationSyncTest {
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final List<String> TAGS = List.of("SQLi", "XSS", "IDOR");
+
+    @TempDir
+    Path dir;
+
+    // Every replica edits the same keys at once while the transport hands batches out late,
+    // shuffled and with gaps; once the edits stop, all stores have to end up the same
+    @Test
+    void concurrentEditsConvergeThroughReorderedBatches() throws Exception {
+        MessyTransport transport = new MessyTransport(11);
+        int replicas = 3;
+        List<AnnotationStore> stores = new ArrayList<>();
+        List<AnnotationSync> syncs = new ArrayList<>();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int r = 0; r < replicas; r++) {
+            AnnotationStore store = newStore();
+            AnnotationSync sync = new AnnotationSync(store, transport, dir.resolve("r" + r).resolve("sync-state.bin"),
+                errors::add, new Metrics(), INTERVAL_NANOS);
+            store.setChangeListener(sync);
+            sync.start();
+            stores.add(store);
+            syncs.add(sync);
+        }
+
+        List<Thread> editors = new ArrayList<>();
+        for (int r = 0; r < replicas; r++) {
+            AnnotationStore store = stores.get(r);
+            int seed = r;
+            editors.add(new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                String[] tags = {AnnotationStore.SCANNED_TAG, TAGS.get(0), TAGS.get(1), TAGS.get(2)};
+                for (int i = 0; i < 4_000; i++) {
+                    UrlKey key = UrlKey.of("https://example.com/" + random.nextInt(200));
+                    String tag = tags[random.nextInt(tags.length)];
+                    if (random.nextBoolean()) {
+                        store.addTag(key, tag);
+                    } else {
+                        store.removeTag(key, tag);
+                    }
+                    if (i % 100 == 0) {
+                        sleep(1);
+                    }
+                }
+            }));
+        }
+        for (Thread editor : editors) {
+            editor.start();
+        }
+        for (Thread editor : editors) {
+            editor.join();
+        }
+
+        boolean converged = waitFor(() -> {
+            Map<Long, Integer> first = snapshot(stores.get(0));
+            for (AnnotationStore store : stores) {
+                if (!snapshot(store).equals(first)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        for (AnnotationSync sync : syncs) {
+            sync.stop();
+        }
+        assertTrue(converged, "stores never converged");
+        assertTrue(transport.published() > replicas, "nothing much was synced");
+        assertEquals(List.of(), errors);
+    }
+
+    // A crash after publishing but before the state is saved must not reuse a batch number or
+    // clock values, or replicas that already applied the old batch never see the new one
+    @Test
+    void restartAfterLostStateDoesNotReuseSeqs() throws Exception {
+        MessyTransport transport = new MessyTransport(5);
+        Path stateFile = dir.resolve("a").resolve("sync-state.bin");
+        AnnotationStore store = newStore();
+
+        AnnotationSync first = startSync(store, transport, stateFile);
+        store.addTag(UrlKey.of("https://example.com/1"), TAGS.get(0));
+        assertTrue(waitFor(() -> transport.published() >= 1));
+        first.stop();
+        Path saved = dir.resolve("saved-state.bin");
+        Files.copy(stateFile, saved);
+
+        AnnotationSync second = startSync(store, transport, stateFile);
+        store.addTag(UrlKey.of("https://example.com/2"), TAGS.get(0));
+        assertTrue(waitFor(() -> transport.published() >= 2));
+        second.stop();
+        // As if Burp died before the second run got to save
+        Files.copy(saved, stateFile, StandardCopyOption.REPLACE_EXISTING);
+
+        AnnotationSync third = startSync(store, transport, stateFile);
+        store.addTag(UrlKey.of("https://example.com/3"), TAGS.get(0));
+        assertTrue(waitFor(() -> transport.published() >= 3));
+        third.stop();
+        assertEquals(List.of(), transport.conflicts());
+
+        AnnotationStore other = newStore();
+        AnnotationSync reader = startSync(other, transport, dir.resolve("b").resolve("sync-state.bin"));
+        boolean caughtUp = waitFor(() -> snapshot(other).equals(snapshot(store)));
+        reader.stop();
+        assertTrue(caughtUp, "second replica missed changes");
+        assertEquals(3, snapshot(other).size());
+    }
+
+    // Batches with nonsense counts have to fail like any other unreadable batch, holding back
+    // only their own replica instead of blowing up the sync thread
+    @Test
+    void corruptCountsOnlyHoldBackTheirReplica() throws Exception {
+        MessyTransport transport = new MessyTransport(3);
+        transport.publish("negative", 1, batchHeader(-1));
+        transport.publish("huge", 1, batchHeader(Integer.MAX_VALUE));
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        AnnotationStore reader = newStore();
+        AnnotationSync readerSync = new AnnotationSync(reader, transport, dir.resolve("a").resolve("sync-state.bin"),
+            errors::add, new Metrics(), INTERVAL_NANOS);
+        reader.setChangeListener(readerSync);
+        readerSync.start();
+        AnnotationStore writer = newStore();
+        AnnotationSync writerSync = startSync(writer, transport, dir.resolve("b").resolve("sync-state.bin"));
+
+        for (int i = 0; i < 3; i++) {
+            UrlKey key = UrlKey.of("https://example.com/" + i);
+            writer.addTag(key, TAGS.get(1));
+            sleep(20);
+            assertTrue(waitFor(() -> reader.hasTag(key, TAGS.get(1))), "change " + i + " never arrived");
+        }
+        writerSync.stop();
+        readerSync.stop();
+        assertEquals(List.of(), errors);
+    }
+
+    private static byte[] batchHeader(int tagCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(0x414e4e53);
+            out.writeInt(1);
+            out.writeInt(tagCount);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void directoryFetchStopsAtTheFirstGap() throws IOException {
+        DirectorySyncTransport transport = new DirectorySyncTransport(dir.resolve("share"));
+        transport.publish("a", 1, new byte[]{1});
+        transport.publish("a", 3, new byte[]{3});
+        assertEquals(List.of(1L), seqs(transport.fetch("b", Map.of(), 16)));
+        transport.publish("a", 2, new byte[]{2});
+        assertEquals(List.of(2L, 3L), seqs(transport.fetch("b", Map.of("a", 1L), 16)));
+        assertEquals(List.of(), seqs(transport.fetch("b", Map.of("a", Long.MAX_VALUE), 16)));
+        assertEquals(List.of(), seqs(transport.fetch("a", Map.of(), 16)));
+    }
+
+    private AnnotationSync startSync(AnnotationStore store, SyncTransport transport, Path stateFile) throws IOException {
+        AnnotationSync sync = new AnnotationSync(store, transport, stateFile, message -> { }, new Metrics(), INTERVAL_NANOS);
+        store.setChangeListener(sync);
+        sync.start();
+        return sync;
+    }
+
+    private static AnnotationStore newStore() {
+        AnnotationStore store = new AnnotationStore();
+        for (String tag : TAGS) {
+            store.tagRegistry().add(tag, TagRegistry.DEFAULT_COLOR);
+        }
+        return store;
+    }
+
+    // Keys left with no tags don't count, a replica that never saw them set may not have them
+    private static Map<Long, Integer> snapshot(AnnotationStore store) {
+        Map<Long, Integer> tags = new HashMap<>();
+        store.forEach((key, mask, timeSeconds) -> {
+            if (mask != 0) {
+                tags.put(key.hash(), mask);
+            }
+        });
+        return tags;
+    }
+
+    private static List<Long> seqs(List<SyncTransport.Batch> batches) {
+        List<Long> seqs = new ArrayList<>();
+        for (SyncTransport.Batch batch : batches) {
+            seqs.add(batch.seq());
+        }
+        return seqs;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Holds batches back for a random while after they're published and hands them out in a
+    // random order, so readers see gaps and later batches before earlier ones. Notes any seq
+    // published twice with different bytes.
+    private static final class MessyTransport implements SyncTransport {
+        private final Random random;
+        private final Map<String, TreeMap<Long, byte[]>> batches = new HashMap<>();
+        private final Map<String, Long> visibleAt = new HashMap<>();
+        private final List<String> conflicts = new ArrayList<>();
+        private int published;
+
+        MessyTransport(long seed) {
+            random = new Random(seed);
+        }
+
+        @Override
+        public synchronized void publish(String replica, long seq, byte[] data) {
+            byte[] old = batches.computeIfAbsent(replica, r -> new TreeMap<>()).put(seq, data.clone());
+            if (old == null) {
+                published++;
+            } else if (!Arrays.equals(old, data)) {
+                conflicts.add(replica + " " + seq);
+            }
+            visibleAt.put(replica + " " + seq, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(random.nextInt(30)));
+        }
+
+        @Override
+        public synchronized List<Batch> fetch(String self, Map<String, Long> after, int max) {
+            long now = System.nanoTime();
+            List<Batch> found = new ArrayList<>();
+            for (Map.Entry<String, TreeMap<Long, byte[]>> entry : batches.entrySet()) {
+                String replica = entry.getKey();
+                if (replica.equals(self)) {
+                    continue;
+                }
+                long seen = after.getOrDefault(replica, 0L);
+                for (Map.Entry<Long, byte[]> batch : entry.getValue().tailMap(seen, false).entrySet()) {
+                    if (visibleAt.get(replica + " " + batch.getKey()) <= now) {
+                        found.add(new Batch(replica, batch.getKey(), batch.getValue().clone()));
+                    }
+                }
+            }
+            Collections.shuffle(found, random);
+            return new ArrayList<>(found.subList(0, Math.min(max, found.size())));
+        }
+
+        synchronized int published() {
+            return published;
+        }
+
+        synchronized List<String> conflicts() {
+            return new ArrayList<>(conflicts);
+        }
+
+        @Override
+        public String describe() {
+            return "messy";
+        }
+    }
+}
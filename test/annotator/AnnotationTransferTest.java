@@ -0,0 +1,102 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnnotationTransferTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void jsonLinesRoundTrip() throws IOException {
+        roundTrip(dir.resolve("export.ndjson"), KeyMode.URL);
+        roundTrip(dir.resolve("endpoints.ndjson"), KeyMode.ENDPOINT);
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException {
+        roundTrip(dir.resolve("export.annx"), KeyMode.URL);
+        roundTrip(dir.resolve("endpoints.bin"), KeyMode.ENDPOINT);
+    }
+
+    @Test
+    void endpointKeysDropToTheirUrlInUrlMode() throws IOException {
+        AnnotationStore source = new AnnotationStore();
+        source.addTag(UrlKey.restore(11, "POST https://example.com/a {x}"), AnnotationStore.SCANNED_TAG);
+        Path file = dir.resolve("endpoints.ndjson");
+        AnnotationTransfer.export(source, file);
+
+        AnnotationStore target = new AnnotationStore();
+        AnnotationTransfer.Result result = AnnotationTransfer.importFrom(target, file, bytes -> { }, () -> false);
+        assertEquals(1, result.imported());
+        assertEquals(true, target.isScanned(UrlKey.of("https://example.com/a")));
+    }
+
+    @Test
+    void badJsonLinesAreSkipped() throws IOException {
+        Path file = dir.resolve("mixed.ndjson");
+        Files.writeString(file, String.join("\n",
+            "{\"key\":\"https://example.com/a\",\"tags\":[\"Scanned\"],\"time\":5,\"extra\":{\"n\":[1,2]}}",
+            "not json",
+            "{\"tags\":[\"Scanned\"]}",
+            "",
+            "{\"key\":\"https://example.com/b\",\"tags\":[]}"));
+        AnnotationStore store = new AnnotationStore();
+        AnnotationTransfer.Result result = AnnotationTransfer.importFrom(store, file, bytes -> { }, () -> false);
+        assertEquals(2, result.imported());
+        assertEquals(2, result.skipped());
+        assertEquals(5000, store.lastModified(UrlKey.of("https://example.com/a")));
+    }
+
+    private void roundTrip(Path file, KeyMode mode) throws IOException {
+        AnnotationStore source = new AnnotationStore();
+        source.setKeyMode(mode);
+        TagRegistry registry = source.tagRegistry();
+        registry.add("Quote \" and \\ slash", TagRegistry.DEFAULT_COLOR);
+        registry.add("Ünïcode ✓", TagRegistry.DEFAULT_COLOR);
+        String[] tags = {AnnotationStore.SCANNED_TAG, "Quote \" and \\ slash", "Ünïcode ✓"};
+        for (int i = 0; i < 20_000; i++) {
+            String url = "https://example.com/" + i + (i % 7 == 0 ? "/\"odd\"\u0001" : "");
+            UrlKey key = mode == KeyMode.ENDPOINT
+                ? UrlKey.restore(UrlKey.of(url).hash() * 31 + i, "GET " + url + " {id}")
+                : UrlKey.of(url);
+            source.merge(key, 0, 1_000 + i);
+            for (int t = 0; t < tags.length; t++) {
+                if ((i >> t & 1) != 0) {
+                    source.addTag(key, tags[t]);
+                }
+            }
+            source.merge(key, 0, 1_000 + i);
+        }
+        assertEquals(20_000, AnnotationTransfer.export(source, file));
+
+        // Tags registered in another order on the importing side
+        AnnotationStore target = new AnnotationStore();
+        target.setKeyMode(mode);
+        target.tagRegistry().add("Ünïcode ✓", TagRegistry.DEFAULT_COLOR);
+        AnnotationTransfer.Result result = AnnotationTransfer.importFrom(target, file, bytes -> { }, () -> false);
+        assertEquals(20_000, result.imported());
+        assertEquals(0, result.skipped());
+        assertEquals(byName(source), byName(target));
+    }
+
+    private static Map<Long, String> byName(AnnotationStore store) {
+        Map<Long, String> entries = new HashMap<>();
+        store.forEach((key, mask, timeSeconds) -> {
+            Set<String> names = new HashSet<>(store.tagRegistry().names(mask));
+            entries.put(key.hash(), key.value() + " " + timeSeconds + " " + names);
+        });
+        return entries;
+    }
+}
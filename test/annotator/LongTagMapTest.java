@@ -0,0 +1,139 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongTagMapTest {
+    private static final int THREADS = 8;
+
+    @Test
+    void updatesFollowTheMaskRules() {
+        LongTagMap map = new LongTagMap();
+        assertEquals(LongTagMap.ABSENT, map.get(42));
+        assertEquals(LongTagMap.ABSENT, map.update(42, 0b0110, 0, 0, 100, "first"));
+        assertEquals(0b0110, map.update(42, 0b0001, 0b0100, 0b1000, 200, "second"));
+        assertEquals(0b1011, map.get(42));
+        assertEquals(200, map.time(42));
+        assertEquals(0b1011, map.updateIfPresent(42, 0, 0, 0, LongTagMap.KEEP_TIME));
+        assertEquals(200, map.time(42));
+        assertEquals(LongTagMap.ABSENT, map.updateIfPresent(43, 1, 0, 0, 300));
+        assertEquals(1, map.size());
+        // Key 0 is the empty marker inside, but still a key from outside
+        map.update(0, 1, 0, 0, 1, "zero");
+        assertEquals(1, map.get(0));
+        // Times past 2038 come back unsigned
+        map.update(44, 0, 0, 0, 3_000_000_000L, null);
+        assertEquals(3_000_000_000L, map.time(44));
+        List<String> values = new ArrayList<>();
+        map.forEach((key, mask, time, value) -> {
+            if (value != null) {
+                values.add(value);
+            }
+        });
+        values.sort(null);
+        // The value given on insert sticks, later ones are ignored
+        assertEquals(List.of("first", "zero"), values);
+    }
+
+    // Values go through the byte arena, so odd characters and long values have to come back intact
+    @Test
+    void valuesComeBackAsGiven() {
+        LongTagMap map = new LongTagMap();
+        List<String> given = new ArrayList<>();
+        given.add("");
+        given.add("https://example.com/caf\u00e9/\u4e2d\u6587/\ud83d\ude00?\u0000");
+        given.add("POST https://example.com/" + "x".repeat(20_000) + " {a, b}");
+        for (int i = 0; i < 5_000; i++) {
+            given.add("https://example.com/" + i);
+        }
+        for (int i = 0; i < given.size(); i++) {
+            map.update(i + 1, 0, 0, 0, 1, given.get(i));
+        }
+        String[] seen = new String[given.size()];
+        map.forEach((key, mask, time, value) -> seen[(int) key - 1] = value);
+        assertEquals(given, List.of(seen));
+        assertTrue(map.memoryBytes() > 20_000 + 5_000 * 20, "text not counted");
+    }
+
+    // Threads own one bit each and flip it on and off on shared keys while others insert new
+    // keys and readers look on; every bit has to end up as its owner last left it
+    @Test
+    void concurrentAddAndRemoveKeepEveryBit() throws InterruptedException {
+        int sharedKeys = 5_000;
+        int opsPerThread = 200_000;
+        LongTagMap map = new LongTagMap();
+        boolean[][] expected = new boolean[THREADS][sharedKeys];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int owner = t;
+            threads.add(new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(owner);
+                int bit = 1 << owner;
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int k = random.nextInt(sharedKeys);
+                        long key = sharedKey(k);
+                        if (random.nextBoolean()) {
+                            map.update(key, bit, 0, 0, i);
+                            expected[owner][k] = true;
+                        } else {
+                            map.update(key, 0, bit, 0, i);
+                            expected[owner][k] = false;
+                        }
+                        // Keys of its own, so the segments keep resizing under the others
+                        map.update(ownKey(owner, i), bit, 0, 0, i);
+                        if ((map.get(ownKey(owner, i)) & bit) == 0) {
+                            throw new AssertionError("own key lost right after insert");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(sharedKeys + THREADS * opsPerThread, map.size());
+        for (int k = 0; k < sharedKeys; k++) {
+            long mask = map.get(sharedKey(k));
+            for (int t = 0; t < THREADS; t++) {
+                assertEquals(expected[t][k], (mask & (1 << t)) != 0, "key " + k + " bit " + t);
+            }
+        }
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < opsPerThread; i++) {
+                assertEquals(1 << t, map.get(ownKey(t, i)));
+            }
+        }
+        int[] visited = {0};
+        map.forEach((key, mask, time, value) -> visited[0]++);
+        assertEquals(map.size(), visited[0]);
+    }
+
+    private static long sharedKey(int k) {
+        return 0x9e3779b97f4a7c15L * (k + 1);
+    }
+
+    private static long ownKey(int owner, int i) {
+        return 0xc2b2ae3d27d4eb4fL * ((long) (owner + 1) << 32 | i);
+    }
+}
@@ -0,0 +1,83 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static annotator.TestRequests.rawRequest;
+import static annotator.TestRequests.rawResponse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The literal prefilter may only ever skip a regex that can't match, so the engine has to
+// agree with a plain Pattern.find on every input
+class PassiveRuleEngineTest {
+    private static final String[] REGEXES = {
+        "\\x41bcd",
+        "\\x{41}bcd",
+        "\\u0041bcd",
+        "\\0101bcd",
+        "(?<w>x)\\k<w>zzz",
+        "\\cJabc",
+        "\\pLabc",
+        "\\P{L}abc",
+        "\\p{Lu}{2}xyz",
+        "[a-z&&[^b]]]xyz",
+        "[]a]]xyz",
+        "[\\Q]\\E]abc",
+        "\\Q(a|b)\\Ecdef",
+        "(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)(l)\\12xyz",
+        "\\b{g}abc",
+        "\\N{LATIN CAPITAL LETTER A}bcd",
+        "token=\\d+;path",
+        "a\\.b\\.c",
+        "(?i)select.+from",
+    };
+    private static final String[] INPUTS = {
+        "Abcd", "xxzzz", "\nabc", "Mabc", "1abc", "ABxyz", "a]xyz", "]]xyz", "]abc", "(a|b)cdef",
+        "abcdefghijkllxyz", "token=12;path", "a.b.c", "SELECT * FROM t", "abc", "bcd", "41bcd",
+        "<w>zzz", "Jabc", "Labc", "]xyz", "2xyz", "nothing here",
+    };
+
+    @Test
+    void engineAgreesWithPatternFind() {
+        for (String regex : REGEXES) {
+            TagRegistry registry = new TagRegistry();
+            PassiveRuleEngine engine = PassiveRuleEngine.compile(
+                List.of(new PassiveRule("Hit", PassiveRule.Where.ANY, PassiveRule.Kind.REGEX, regex)), registry);
+            int bit = registry.bit("Hit");
+            Pattern pattern = Pattern.compile(regex);
+            for (String input : INPUTS) {
+                String message = "GET / HTTP/1.1\r\nX: " + input + "\r\n\r\n";
+                boolean expected = pattern.matcher(message).find();
+                assertEquals(expected, engine.match(rawRequest(message), null, bit) != 0, regex + " on " + input);
+                assertEquals(expected, engine.match(rawRequest("GET / HTTP/1.1\r\n\r\n"), rawResponse(message), bit) != 0,
+                    regex + " on response " + input);
+            }
+        }
+    }
+
+    @Test
+    void escapesNeverLeaveTheirArgumentsInTheLiteral() {
+        assertEquals("bcd", PassiveRuleEngine.requiredLiteral("\\x41bcd"));
+        assertEquals("zzz", PassiveRuleEngine.requiredLiteral("(?<w>x)\\k<w>zzz"));
+        assertEquals("]xyz", PassiveRuleEngine.requiredLiteral("[a-z&&[^b]]]xyz"));
+        assertEquals("xyz", PassiveRuleEngine.requiredLiteral("(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)(l)\\12xyz"));
+        assertEquals("a.b.c", PassiveRuleEngine.requiredLiteral("a\\.b\\.c"));
+        assertNull(PassiveRuleEngine.requiredLiteral("abc|def"));
+    }
+
+    // Only the first MAX_SCAN_BYTES are looked at, so a match past them is missed on purpose
+    @Test
+    void bigMessagesAreCutAtTheScanLimit() {
+        TagRegistry registry = new TagRegistry();
+        PassiveRuleEngine engine = PassiveRuleEngine.compile(
+            List.of(new PassiveRule("Hit", PassiveRule.Where.ANY, PassiveRule.Kind.LITERAL, "needle")), registry);
+        int bit = registry.bit("Hit");
+        String early = "needle" + "x".repeat(2 << 20);
+        String late = "x".repeat(2 << 20) + "needle";
+        assertEquals(bit, engine.match(rawRequest(early), null, bit));
+        assertEquals(0, engine.match(rawRequest(late), null, bit));
+    }
+}
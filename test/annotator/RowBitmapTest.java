@@ -0,0 +1,103 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Every operation checked against java.util.BitSet, with blocks sparse enough to stay arrays
+// and dense enough to turn into bitsets and back
+class RowBitmapTest {
+    private static final int MAX_ROW = 3 << 16;
+
+    @Test
+    void addAndRemoveMatchBitSet() {
+        Random random = new Random(1);
+        RowBitmap bitmap = new RowBitmap();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 200_000; i++) {
+            // Mostly the first block, so it crosses the array/bitset threshold both ways
+            int row = random.nextInt(4) == 0 ? random.nextInt(MAX_ROW) : random.nextInt(12_000);
+            if (random.nextInt(3) == 0) {
+                bitmap.remove(row);
+                expected.clear(row);
+            } else {
+                bitmap.add(row);
+                expected.set(row);
+            }
+            if (i % 10_000 == 0) {
+                assertSame(expected, bitmap);
+            }
+        }
+        assertSame(expected, bitmap);
+    }
+
+    @Test
+    void setOperationsMatchBitSet() {
+        Random random = new Random(2);
+        for (int round = 0; round < 20; round++) {
+            BitSet a = randomSet(random);
+            BitSet b = randomSet(random);
+            RowBitmap x = toBitmap(a);
+            RowBitmap y = toBitmap(b);
+
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            assertSame(and, x.and(y));
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            assertSame(or, x.or(y));
+            BitSet andNot = (BitSet) a.clone();
+            andNot.andNot(b);
+            assertSame(andNot, x.andNot(y));
+            // Operands are left alone
+            assertSame(a, x);
+            assertSame(b, y);
+        }
+    }
+
+    @Test
+    void rangeHoldsEveryRowBelowTheCount() {
+        for (int count : new int[]{0, 1, 63, 64, 65, 65_535, 65_536, 65_537, 200_001}) {
+            BitSet expected = new BitSet();
+            expected.set(0, count);
+            assertSame(expected, RowBitmap.range(count));
+        }
+    }
+
+    private static BitSet randomSet(Random random) {
+        BitSet set = new BitSet();
+        // Density per block varies from a handful of rows to nearly full
+        for (int block = 0; block < 3; block++) {
+            int rows = random.nextInt(4) == 0 ? 0 : random.nextInt(block == 1 ? 60_000 : 6_000);
+            for (int i = 0; i < rows; i++) {
+                set.set((block << 16) + random.nextInt(1 << 16));
+            }
+        }
+        return set;
+    }
+
+    private static RowBitmap toBitmap(BitSet set) {
+        RowBitmap bitmap = new RowBitmap();
+        set.stream().forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, RowBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        BitSet visited = new BitSet();
+        int[] last = {-1};
+        actual.forEach(row -> {
+            assertEquals(true, row > last[0], "rows out of order");
+            last[0] = row;
+            visited.set(row);
+        });
+        assertEquals(expected, visited);
+        for (int row = 0; row < MAX_ROW; row += 7) {
+            assertEquals(expected.get(row), actual.contains(row), "row " + row);
+        }
+    }
+}
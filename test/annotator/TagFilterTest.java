@@ -0,0 +1,113 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Random filters over random rows, evaluated through the bitmaps and row by row
+class TagFilterTest {
+    private static final List<String> NAMES = List.of("Scanned", "SQLi", "XSS", "Need to Scan", "IDOR");
+    private static final int ROWS = 5_000;
+
+    private interface Expr {
+        boolean matches(int mask);
+    }
+
+    private record Generated(String text, Expr expr) { }
+
+    @Test
+    void randomFiltersMatchBruteForce() {
+        TagRegistry registry = new TagRegistry();
+        for (String name : NAMES) {
+            registry.add(name, TagRegistry.DEFAULT_COLOR);
+        }
+        Random random = new Random(3);
+        int[] masks = new int[ROWS];
+        RowBitmap[] rowsByTag = new RowBitmap[TagRegistry.MAX_TAGS];
+        for (int id = 0; id < rowsByTag.length; id++) {
+            rowsByTag[id] = new RowBitmap();
+        }
+        for (int row = 0; row < ROWS; row++) {
+            masks[row] = random.nextInt(1 << NAMES.size());
+            for (int bits = masks[row]; bits != 0; bits &= bits - 1) {
+                rowsByTag[Integer.numberOfTrailingZeros(bits)].add(row);
+            }
+        }
+
+        for (int round = 0; round < 500; round++) {
+            Generated generated = generate(random, registry, 3);
+            TagFilter filter = TagFilter.parse(generated.text, registry);
+            RowBitmap result = filter.evaluate(rowsByTag, ROWS);
+            for (int row = 0; row < ROWS; row++) {
+                boolean expected = generated.expr.matches(masks[row]);
+                assertEquals(expected, result.contains(row), generated.text + " on row " + row);
+                assertEquals(expected, filter.matches(masks[row]), generated.text + " on mask " + masks[row]);
+            }
+        }
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        TagRegistry registry = new TagRegistry();
+        for (String name : NAMES) {
+            registry.add(name, TagRegistry.DEFAULT_COLOR);
+        }
+        RowBitmap[] rowsByTag = new RowBitmap[TagRegistry.MAX_TAGS];
+        for (int id = 0; id < rowsByTag.length; id++) {
+            rowsByTag[id] = new RowBitmap();
+        }
+        // Row 0: SQLi only; row 1: XSS only; row 2: XSS and Scanned
+        rowsByTag[registry.get("SQLi").id()].add(0);
+        rowsByTag[registry.get("XSS").id()].add(1);
+        rowsByTag[registry.get("XSS").id()].add(2);
+        rowsByTag[registry.get("Scanned").id()].add(2);
+        RowBitmap result = TagFilter.parse("SQLi | XSS & Scanned", registry).evaluate(rowsByTag, 3);
+        assertTrue(result.contains(0));
+        assertFalse(result.contains(1));
+        assertTrue(result.contains(2));
+    }
+
+    @Test
+    void badFiltersAreRejected() {
+        TagRegistry registry = new TagRegistry();
+        registry.add("SQLi", TagRegistry.DEFAULT_COLOR);
+        for (String bad : new String[]{"", "SQLi &", "(SQLi", "SQLi)", "Nope", "SQLi ! Scanned"}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> TagFilter.parse(bad, registry), bad);
+            assertTrue(e.getMessage() != null && !e.getMessage().isEmpty());
+        }
+    }
+
+    private static Generated generate(Random random, TagRegistry registry, int depth) {
+        int choice = depth == 0 ? 0 : random.nextInt(4);
+        switch (choice) {
+            case 1 -> {
+                Generated inner = generate(random, registry, depth - 1);
+                return new Generated("!" + inner.text, mask -> !inner.expr.matches(mask));
+            }
+            case 2 -> {
+                Generated a = generate(random, registry, depth - 1);
+                Generated b = generate(random, registry, depth - 1);
+                return new Generated("(" + a.text + " & " + b.text + ")",
+                    mask -> a.expr.matches(mask) && b.expr.matches(mask));
+            }
+            case 3 -> {
+                Generated a = generate(random, registry, depth - 1);
+                Generated b = generate(random, registry, depth - 1);
+                return new Generated("(" + a.text + " | " + b.text + ")",
+                    mask -> a.expr.matches(mask) || b.expr.matches(mask));
+            }
+            default -> {
+                String name = NAMES.get(random.nextInt(NAMES.size()));
+                int bit = registry.bit(name);
+                return new Generated(name, mask -> (mask & bit) != 0);
+            }
+        }
+    }
+}
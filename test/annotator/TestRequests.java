@@ -0,0 +1,107 @@
+package annotator;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Bare-bones Burp requests for tests: only what UrlKey, the scan check and the passive rules
+// read is answered, anything else returns null or 0
+final class TestRequests {
+    private TestRequests() {
+    }
+
+    // params are "name" for query parameters or "type:name", e.g. "BODY:id" or "COOKIE:session"
+    static HttpRequest request(String method, boolean secure, String host, int port, String pathAndQuery,
+                               String... params) {
+        HttpService service = stub(HttpService.class, Map.of("host", host, "port", port, "secure", secure));
+        int q = pathAndQuery.indexOf('?');
+        List<ParsedHttpParameter> parameters = new ArrayList<>();
+        for (String param : params) {
+            int colon = param.indexOf(':');
+            HttpParameterType type = colon < 0 ? HttpParameterType.URL
+                : HttpParameterType.valueOf(param.substring(0, colon));
+            parameters.add(stub(ParsedHttpParameter.class,
+                Map.of("name", param.substring(colon + 1), "type", type, "value", "")));
+        }
+        String url = (secure ? "https://" : "http://") + host + ":" + port + pathAndQuery;
+        return stub(HttpRequest.class, Map.of(
+            "httpService", service,
+            "method", method,
+            "path", pathAndQuery,
+            "pathWithoutQuery", q < 0 ? pathAndQuery : pathAndQuery.substring(0, q),
+            "url", url,
+            "parameters", List.copyOf(parameters)));
+    }
+
+    // A request or response that is only its raw bytes, Latin-1 encoded, with no parameters
+    static HttpRequest rawRequest(String raw) {
+        return stub(HttpRequest.class, Map.of("toByteArray", bytes(raw.getBytes(StandardCharsets.ISO_8859_1)),
+            "parameters", List.of()));
+    }
+
+    static HttpResponse rawResponse(String raw) {
+        return stub(HttpResponse.class, Map.of("toByteArray", bytes(raw.getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    // Answers length, getBytes and subArray(start, end)
+    static ByteArray bytes(byte[] data) {
+        return (ByteArray) Proxy.newProxyInstance(ByteArray.class.getClassLoader(), new Class<?>[]{ByteArray.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "length" -> data.length;
+                case "getBytes" -> data.clone();
+                case "subArray" -> bytes(Arrays.copyOfRange(data, (int) args[0], (int) args[1]));
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    // The request with one more header, as far as headerValue is concerned
+    static HttpRequest withHeader(HttpRequest request, String name, String value) {
+        return (HttpRequest) Proxy.newProxyInstance(HttpRequest.class.getClassLoader(), new Class<?>[]{HttpRequest.class},
+            (proxy, method, args) -> method.getName().equals("headerValue") && name.equalsIgnoreCase((String) args[0])
+                ? value : method.invoke(request, args));
+    }
+
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> {
+                Object answer = answers.get(method.getName());
+                if (answer != null) {
+                    return answer;
+                }
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + " stub";
+                    default:
+                        break;
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                }
+                if (returnType == int.class) {
+                    return 0;
+                }
+                if (returnType == short.class) {
+                    return (short) 0;
+                }
+                if (returnType == long.class) {
+                    return 0L;
+                }
+                return null;
+            }));
+    }
+}
@@ -0,0 +1,128 @@
+package annotator;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.scanner.audit.issues.AuditIssue;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static annotator.TestRequests.request;
+import static annotator.TestRequests.stub;
+import static annotator.TestRequests.withHeader;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UrlKeyTest {
+    @Test
+    void urlKeysDropWhatDoesNotNameTheResource() {
+        UrlKey key = UrlKey.of("HTTPS://Example.COM:443/a/b?x=1#top");
+        assertEquals("https://example.com/a/b", key.value());
+        assertEquals(key, UrlKey.of("https://example.com/a/b"));
+        assertEquals("http://example.com:8080/", UrlKey.of("http://user@example.com:8080?q").value());
+        assertEquals("http://[::1]:8080/x", UrlKey.of("http://[::1]:8080/x").value());
+        // Path case matters, host case doesn't
+        assertNotEquals(UrlKey.of("https://example.com/A"), UrlKey.of("https://example.com/a"));
+        assertThrows(IllegalArgumentException.class, () -> UrlKey.of("example.com/a"));
+        assertThrows(IllegalArgumentException.class, () -> UrlKey.of("ftp://example.com/a"));
+    }
+
+    @Test
+    void requestKeysMatchStringKeys() {
+        UrlKey fromRequest = UrlKey.of(request("GET", true, "Example.com", 443, "/a?x=1"));
+        assertEquals(UrlKey.of("https://example.com/a"), fromRequest);
+        assertEquals("https://example.com/a", fromRequest.value());
+        assertEquals(UrlKey.of("http://example.com:8080/"),
+            UrlKey.of(request("GET", false, "example.com", 8080, "")));
+    }
+
+    @Test
+    void hashOfMatchesTheBuiltKey() {
+        String[][] cases = {
+            {"https", "Example.COM", "443", "/a/b?x=1"},
+            {"http", "example.com", "80", "/"},
+            {"http", "example.com", "8080", "/a#frag"},
+            {"https", "example.com", "8443", "/%41?"},
+            {"https", "10.0.0.1", "1", "/x/y/z"},
+            {"http", "example.com", "-1", "/no-port"},
+            {"http", "example.com", "65535", "/ünï"},
+        };
+        for (String[] c : cases) {
+            var request = request("GET", c[0].equals("https"), c[1], Integer.parseInt(c[2]), c[3]);
+            assertEquals(UrlKey.of(request).hash(), UrlKey.hashOf(request), String.join(" ", c));
+            assertEquals(UrlKey.of(request).hash(), UrlKey.hashOf(request, KeyMode.URL));
+        }
+        var post = request("post", true, "example.com", 443, "/login?b=1", "b", "BODY:user", "COOKIE:s");
+        assertEquals(UrlKey.endpoint(post).hash(), UrlKey.hashOf(post, KeyMode.ENDPOINT));
+        // Same path and body size, different names
+        var other = request("POST", true, "example.com", 443, "/login?b=1", "b", "BODY:pass", "COOKIE:s");
+        assertNotEquals(UrlKey.hashOf(post, KeyMode.ENDPOINT), UrlKey.hashOf(other, KeyMode.ENDPOINT));
+    }
+
+    @Test
+    void endpointKeysUseMethodAndSortedParameterNames() {
+        UrlKey a = UrlKey.endpoint(request("post", true, "example.com", 443, "/login?b=1&a=2",
+            "b", "a", "BODY:user", "BODY:a", "COOKIE:session"));
+        UrlKey b = UrlKey.endpoint(request("POST", true, "EXAMPLE.com", 443, "/login?a=9",
+            "a", "BODY:user", "BODY:b", "COOKIE:other"));
+        // Same names in another order and place, duplicates and cookies don't count
+        assertEquals(a, b);
+        assertEquals("POST https://example.com/login {a, b, user}", a.value());
+        assertTrue(a.isEndpoint());
+        assertEquals("https://example.com/login", a.url());
+
+        assertNotEquals(a, UrlKey.endpoint(request("GET", true, "example.com", 443, "/login",
+            "a", "b", "user")));
+        assertNotEquals(a, UrlKey.endpoint(request("POST", true, "example.com", 443, "/login",
+            "a", "b", "usr")));
+        assertNotEquals(a, UrlKey.of("https://example.com/login"));
+        // Names run together must not look like one name
+        assertNotEquals(UrlKey.endpoint(request("GET", true, "example.com", 443, "/", "ab")),
+            UrlKey.endpoint(request("GET", true, "example.com", 443, "/", "a", "b")));
+    }
+
+    @Test
+    void endpointKeysWithoutParametersStillDifferByMethod() {
+        UrlKey get = UrlKey.endpoint(request("GET", true, "example.com", 443, "/x"));
+        UrlKey post = UrlKey.endpoint(request("POST", true, "example.com", 443, "/x"));
+        assertNotEquals(get, post);
+        assertEquals("GET https://example.com/x", get.value());
+    }
+
+    @Test
+    void restoredKeysMatchLiveOnes() {
+        UrlKey endpoint = UrlKey.endpoint(request("PUT", false, "example.com", 80, "/item?id=1", "id"));
+        UrlKey restored = UrlKey.restore(endpoint.hash(), endpoint.value());
+        assertEquals(endpoint, restored);
+        assertEquals(endpoint.value(), restored.value());
+        assertEquals(endpoint.url(), restored.url());
+        assertTrue(restored.isEndpoint());
+
+        UrlKey url = UrlKey.of("https://example.com/a b");
+        UrlKey restoredUrl = UrlKey.restore(url.hash(), url.value());
+        assertEquals(url, restoredUrl);
+        assertEquals(url.value(), restoredUrl.url());
+    }
+
+    // Issues whose body was dropped carry the parameter names in a header instead
+    @Test
+    void trimmedIssueRequestsKeepTheirEndpointKey() {
+        HttpRequest original = request("POST", true, "example.com", 443, "/api?v=1",
+            "v", "BODY:a,b", "JSON:c d", "JSON:\u00e9", "COOKIE:session");
+        HttpRequest trimmed = withHeader(request("POST", true, "example.com", 443, "/api?v=1"),
+            UrlKey.PARAMS_HEADER, UrlKey.paramsHeader(original));
+        AuditIssue issue = stub(AuditIssue.class, Map.of("requestResponses",
+            List.of(stub(HttpRequestResponse.class, Map.of("request", trimmed)))));
+        AnnotationStore store = new AnnotationStore();
+        store.setKeyMode(KeyMode.ENDPOINT);
+        UrlKey key = store.keyFor(issue);
+        assertEquals(UrlKey.endpoint(original), key);
+        assertEquals(UrlKey.endpoint(original).value(), key.value());
+
+        HttpRequest none = request("GET", true, "example.com", 443, "/");
+        assertEquals(UrlKey.endpoint(none), UrlKey.endpoint(none, UrlKey.paramsHeader(none)));
+    }
+}
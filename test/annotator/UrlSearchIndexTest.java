@@ -0,0 +1,44 @@
+package annotator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The table checks rows that arrive during a search with matches instead of searching again,
+// so the two have to agree on every kind of term
+class UrlSearchIndexTest {
+    @Test
+    void matchesAgreesWithSearch() {
+        Random random = new Random(3);
+        String[] hosts = {"example.com", "api.example.com", "test.org", "shop.test.org:8443"};
+        String[] words = {"login", "admin", "api", "v1", "users", "a", "id", "search", "x"};
+        List<String> texts = new ArrayList<>();
+        List<String> rowHosts = new ArrayList<>();
+        UrlSearchIndex index = new UrlSearchIndex(texts::get);
+        for (int row = 0; row < 2_000; row++) {
+            String host = hosts[random.nextInt(hosts.length)];
+            StringBuilder path = new StringBuilder();
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                path.append('/').append(words[random.nextInt(words.length)]);
+            }
+            String text = (random.nextBoolean() ? "https://" : "post https://") + host + path;
+            texts.add(text);
+            rowHosts.add(host);
+            index.add(row, text, host);
+        }
+        String[] queries = {"", "  ", "a", "Ad", "api", "login", "/v1/users", "host:test", "host:api admin",
+            "HOST:example.com id", "users   x", "host:nowhere", "post", "nothing-like-this"};
+        for (String query : queries) {
+            RowBitmap searched = index.search(query);
+            String[] terms = UrlSearchIndex.terms(query);
+            for (int row = 0; row < texts.size(); row++) {
+                assertEquals(searched.contains(row), UrlSearchIndex.matches(terms, texts.get(row), rowHosts.get(row)),
+                    "\"" + query + "\" on " + texts.get(row));
+            }
+        }
+    }
+}